@@ -0,0 +1,306 @@
+package com.iot.analysisreport.history;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * The last {@code capacity} samples of one device, held as one primitive ring per
+ * metric. All rings share the same slot for a sample; a metric missing from a sample
+ * reads as NaN there, so windows are still counted in device samples as before.
+ * Appends and reads allocate nothing once every metric of the device has been seen.
+ *
+ * Each metric also keeps running statistics over its window, updated as values enter
+ * and leave the ring (sliding Welford), and optionally an EWMA mean and variance, so
+ * reading them costs the same whatever the capacity. Trend windows are kept per
+ * metric alongside, independent of the capacity.
+ *
+ * Histories can be written to and read back from a checkpoint buffer; the encoding
+ * keeps the retained samples, EWMA state and trend window points, and the running
+ * statistics are rebuilt from them on restore.
+ *
+ * Not thread-safe: each device is updated by one listener thread at a time.
+ */
+public final class DeviceHistory {
+
+    private static final TrendWindow[] NO_TRENDS = new TrendWindow[0];
+
+    private final int capacity;
+    private final double ewmaAlpha;
+    private final Function<String, List<TrendWindow.Spec>> trendSpecs;
+    private MetricWindow[] metrics = new MetricWindow[0];
+    private int head;
+    private int size;
+    private long sampleCount;
+
+    // ewmaAlpha of 0 skips the EWMA statistics; trendSpecs gives the trend windows for a metric name
+    public DeviceHistory(int capacity, double ewmaAlpha, Function<String, List<TrendWindow.Spec>> trendSpecs) {
+        this.capacity = capacity;
+        this.ewmaAlpha = ewmaAlpha;
+        this.trendSpecs = trendSpecs;
+    }
+
+    // Only numeric entries are kept, as the detectors ignore everything else
+    public void append(Map<String, Object> data, long timestampMillis, MetricDictionary dictionary) {
+        int slot = head;
+        for (MetricWindow metric : metrics) {
+            if (metric != null) metric.replace(slot, Double.NaN);
+        }
+        if (data != null) {
+            for (Map.Entry<String, Object> entry : data.entrySet()) {
+                if (entry.getValue() instanceof Number) {
+                    double value = ((Number) entry.getValue()).doubleValue();
+                    MetricWindow metric = window(dictionary.idOf(entry.getKey()), dictionary);
+                    metric.replace(slot, value);
+                    for (TrendWindow trend : metric.trends) {
+                        trend.add(sampleCount, timestampMillis, value);
+                    }
+                }
+            }
+        }
+
+        head = slot + 1 == capacity ? 0 : slot + 1;
+        if (size < capacity) size++;
+        sampleCount++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    // index 0 is the oldest retained sample, size() - 1 the newest; NaN if the metric was absent
+    public double value(int metric, int index) {
+        if (metric >= metrics.length || metrics[metric] == null) return Double.NaN;
+        int slot = head - size + index;
+        return metrics[metric].ring[slot < 0 ? slot + capacity : slot];
+    }
+
+    // Samples in the window that carry the metric
+    public int count(int metric) {
+        return metric < metrics.length && metrics[metric] != null ? metrics[metric].count : 0;
+    }
+
+    public double mean(int metric) {
+        return metric < metrics.length && metrics[metric] != null ? metrics[metric].mean : 0.0;
+    }
+
+    // Population variance over the window, as the detectors have always used
+    public double variance(int metric) {
+        MetricWindow window = metric < metrics.length ? metrics[metric] : null;
+        return window != null && window.count > 0 ? window.squaredDeviations / window.count : 0.0;
+    }
+
+    public double ewmaMean(int metric) {
+        return metric < metrics.length && metrics[metric] != null ? metrics[metric].ewmaMean : 0.0;
+    }
+
+    public double ewmaVariance(int metric) {
+        return metric < metrics.length && metrics[metric] != null ? metrics[metric].ewmaVariance : 0.0;
+    }
+
+    public TrendWindow[] trends(int metric) {
+        return metric < metrics.length && metrics[metric] != null ? metrics[metric].trends : NO_TRENDS;
+    }
+
+    public int encodedSize(MetricDictionary dictionary) {
+        int bytes = Long.BYTES + 2 * Integer.BYTES;
+        for (int metric = 0; metric < metrics.length; metric++) {
+            MetricWindow window = metrics[metric];
+            if (window == null) continue;
+            bytes += encodedSize(dictionary.nameOf(metric)) + 1 + 2 * Double.BYTES + size * Double.BYTES + Integer.BYTES;
+            for (TrendWindow trend : window.trends) {
+                bytes += encodedSize(trend.spec().window()) + trend.encodedSize();
+            }
+        }
+        return bytes;
+    }
+
+    // Metrics are written by name, so ids need not match between runs
+    public void writeTo(ByteBuffer buffer, MetricDictionary dictionary) {
+        int metricCount = 0;
+        for (MetricWindow window : metrics) {
+            if (window != null) metricCount++;
+        }
+        buffer.putLong(sampleCount);
+        buffer.putInt(size);
+        buffer.putInt(metricCount);
+
+        for (int metric = 0; metric < metrics.length; metric++) {
+            MetricWindow window = metrics[metric];
+            if (window == null) continue;
+            writeString(buffer, dictionary.nameOf(metric));
+            buffer.put((byte) (window.ewmaSeeded ? 1 : 0));
+            buffer.putDouble(window.ewmaMean);
+            buffer.putDouble(window.ewmaVariance);
+            for (int i = 0; i < size; i++) {
+                buffer.putDouble(value(metric, i));
+            }
+            buffer.putInt(window.trends.length);
+            for (TrendWindow trend : window.trends) {
+                writeString(buffer, trend.spec().window());
+                trend.writeTo(buffer);
+            }
+        }
+    }
+
+    // Restores into the current settings: a smaller capacity keeps the newest samples, and
+    // trend windows that are no longer configured are skipped
+    public static DeviceHistory readFrom(ByteBuffer buffer, MetricDictionary dictionary, int capacity, double ewmaAlpha,
+                                         Function<String, List<TrendWindow.Spec>> trendSpecs) {
+        DeviceHistory history = new DeviceHistory(capacity, ewmaAlpha, trendSpecs);
+        history.sampleCount = buffer.getLong();
+        int savedSize = buffer.getInt();
+        int metricCount = buffer.getInt();
+        history.size = Math.min(savedSize, capacity);
+        history.head = history.size == capacity ? 0 : history.size;
+        int skipped = savedSize - history.size;
+
+        for (int m = 0; m < metricCount; m++) {
+            MetricWindow window = history.window(dictionary.idOf(readString(buffer)), dictionary);
+            window.ewmaSeeded = buffer.get() != 0;
+            window.ewmaMean = buffer.getDouble();
+            window.ewmaVariance = buffer.getDouble();
+            buffer.position(buffer.position() + skipped * Double.BYTES);
+            for (int i = 0; i < history.size; i++) {
+                window.ring[i] = buffer.getDouble();
+            }
+            window.recompute();
+
+            int trendCount = buffer.getInt();
+            for (int t = 0; t < trendCount; t++) {
+                String label = readString(buffer);
+                TrendWindow trend = null;
+                for (TrendWindow candidate : window.trends) {
+                    if (candidate.spec().window().equals(label)) trend = candidate;
+                }
+                if (trend != null) {
+                    trend.readFrom(buffer);
+                } else {
+                    TrendWindow.skip(buffer);
+                }
+            }
+        }
+        return history;
+    }
+
+    public static int encodedSize(String value) {
+        return Short.BYTES + value.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    public static void writeString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    public static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private MetricWindow window(int metric, MetricDictionary dictionary) {
+        if (metric >= metrics.length) {
+            metrics = Arrays.copyOf(metrics, metric + 1);
+        }
+        if (metrics[metric] == null) {
+            List<TrendWindow.Spec> specs = trendSpecs.apply(dictionary.nameOf(metric));
+            TrendWindow[] trends = new TrendWindow[specs.size()];
+            for (int i = 0; i < trends.length; i++) {
+                trends[i] = new TrendWindow(specs.get(i));
+            }
+            metrics[metric] = new MetricWindow(capacity, trends);
+        }
+        return metrics[metric];
+    }
+
+    private final class MetricWindow {
+        final double[] ring;
+        final TrendWindow[] trends;
+        int count;
+        double mean;
+        double squaredDeviations;
+        int removals;
+        double ewmaMean;
+        double ewmaVariance;
+        boolean ewmaSeeded;
+
+        MetricWindow(int capacity, TrendWindow[] trends) {
+            this.trends = trends;
+            ring = new double[capacity];
+            Arrays.fill(ring, Double.NaN);
+        }
+
+        void replace(int slot, double value) {
+            double evicted = ring[slot];
+            if (!Double.isNaN(evicted)) {
+                ring[slot] = Double.NaN;
+                remove(evicted);
+            }
+            ring[slot] = value;
+            if (!Double.isNaN(value)) add(value);
+        }
+
+        private void add(double value) {
+            count++;
+            double delta = value - mean;
+            mean += delta / count;
+            squaredDeviations += delta * (value - mean);
+
+            if (ewmaAlpha > 0) {
+                if (!ewmaSeeded) {
+                    ewmaMean = value;
+                    ewmaSeeded = true;
+                } else {
+                    double difference = value - ewmaMean;
+                    double increment = ewmaAlpha * difference;
+                    ewmaMean += increment;
+                    ewmaVariance = (1 - ewmaAlpha) * (ewmaVariance + difference * increment);
+                }
+            }
+        }
+
+        private void remove(double value) {
+            if (--count == 0) {
+                mean = 0;
+                squaredDeviations = 0;
+                return;
+            }
+            double delta = value - mean;
+            mean -= delta / count;
+            squaredDeviations = Math.max(0, squaredDeviations - delta * (value - mean));
+
+            // Removals accumulate rounding error; rebuild from the ring once per window, amortized O(1)
+            if (++removals >= ring.length) {
+                recompute();
+            }
+        }
+
+        private void recompute() {
+            int n = 0;
+            double sum = 0;
+            for (double v : ring) {
+                if (Double.isNaN(v)) continue;
+                sum += v;
+                n++;
+            }
+            double m = n > 0 ? sum / n : 0;
+            double squares = 0;
+            for (double v : ring) {
+                if (Double.isNaN(v)) continue;
+                squares += (v - m) * (v - m);
+            }
+            count = n;
+            mean = m;
+            squaredDeviations = squares;
+            removals = 0;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.iot.analysisreport.history;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Assigns each metric name a small dense id, shared by all devices, so per-device
+ * history can index its arrays by metric instead of keying maps by name.
+ */
+public final class MetricDictionary {
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<String> names = new CopyOnWriteArrayList<>();
+
+    public int idOf(String name) {
+        Integer id = ids.get(name);
+        if (id != null) return id;
+        synchronized (this) {
+            return ids.computeIfAbsent(name, key -> {
+                names.add(key);
+                return names.size() - 1;
+            });
+        }
+    }
+
+    public String nameOf(int id) {
+        return names.get(id);
+    }
+
+    public int size() {
+        return names.size();
+    }
+}
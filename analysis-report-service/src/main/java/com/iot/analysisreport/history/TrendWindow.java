@@ -0,0 +1,228 @@
+package com.iot.analysisreport.history;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Least-squares slope of one metric over a sliding window, kept as running sums that
+ * are updated as points enter and leave, so the cost per sample does not depend on
+ * the window length. A window is either the last N device samples, with x counting
+ * the samples that carry the metric (as the trend detector always has), or a
+ * duration, with x in minutes.
+ *
+ * x and y are summed relative to an origin taken from the oldest point, which is
+ * moved forward when the sums are rebuilt once per window's worth of evictions; this
+ * keeps the sums small enough that long windows do not lose precision.
+ */
+public final class TrendWindow {
+
+    public static final String ANY_METRIC = "*";
+    private static final int MIN_POINTS = 5;
+    private static final double MILLIS_PER_MINUTE = 60_000.0;
+
+    /**
+     * One configured window: {@code metric=window:threshold}, where window is a sample
+     * count ({@code 10}) or a duration ({@code 30s}, {@code 5m}, {@code 1h}). The threshold
+     * is a slope per sample for sample windows and per minute for duration windows.
+     */
+    public record Spec(String metric, int samples, long durationMillis, double threshold, String window) {
+
+        public boolean isDuration() {
+            return durationMillis > 0;
+        }
+
+        // Comma-separated specs grouped by metric; several windows per metric are allowed
+        public static Map<String, List<Spec>> parse(String specs) {
+            Map<String, List<Spec>> byMetric = new HashMap<>();
+            if (specs == null || specs.isBlank()) return byMetric;
+
+            for (String entry : specs.split(",")) {
+                String trimmed = entry.trim();
+                if (trimmed.isEmpty()) continue;
+                int equals = trimmed.indexOf('=');
+                int colon = trimmed.lastIndexOf(':');
+                if (equals <= 0 || colon < equals) {
+                    throw new IllegalArgumentException("Invalid trend window '" + trimmed + "', expected metric=window:threshold");
+                }
+                String metric = trimmed.substring(0, equals).trim();
+                String window = trimmed.substring(equals + 1, colon).trim();
+                double threshold = Double.parseDouble(trimmed.substring(colon + 1).trim());
+                byMetric.computeIfAbsent(metric, k -> new ArrayList<>()).add(of(metric, window, threshold));
+            }
+            return byMetric;
+        }
+
+        private static Spec of(String metric, String window, double threshold) {
+            char unit = window.charAt(window.length() - 1);
+            if (Character.isDigit(unit)) {
+                int samples = Integer.parseInt(window);
+                if (samples < 2) throw new IllegalArgumentException("Trend window needs at least 2 samples: " + window);
+                return new Spec(metric, samples, 0, threshold, window);
+            }
+            long amount = Long.parseLong(window.substring(0, window.length() - 1));
+            long millis = switch (unit) {
+                case 's' -> amount * 1_000L;
+                case 'm' -> amount * 60_000L;
+                case 'h' -> amount * 3_600_000L;
+                default -> throw new IllegalArgumentException("Unknown trend window unit in '" + window + "', use s, m or h");
+            };
+            return new Spec(metric, 0, millis, threshold, window);
+        }
+    }
+
+    private final Spec spec;
+
+    // Points in arrival order: eviction key (device sample number or time), raw x, y
+    private long[] keys;
+    private long[] xs;
+    private double[] ys;
+    private int head;
+    private int count;
+    private long ordinal;
+
+    private long xOrigin;
+    private double yOrigin;
+    private double sumX, sumY, sumXY, sumXX;
+    private int removals;
+
+    public TrendWindow(Spec spec) {
+        this.spec = spec;
+        int initialCapacity = spec.isDuration() ? 16 : Math.min(spec.samples(), 64);
+        keys = new long[initialCapacity];
+        xs = new long[initialCapacity];
+        ys = new double[initialCapacity];
+    }
+
+    public Spec spec() {
+        return spec;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // sampleNumber counts every sample of the device, including those without this metric
+    public void add(long sampleNumber, long timestampMillis, double value) {
+        long key = spec.isDuration() ? timestampMillis : sampleNumber;
+        long cutoff = spec.isDuration() ? timestampMillis - spec.durationMillis() : sampleNumber - spec.samples();
+        while (count > 0 && keys[head] <= cutoff) {
+            removeOldest();
+        }
+
+        long x = spec.isDuration() ? timestampMillis : ordinal++;
+        if (count == 0) {
+            xOrigin = x;
+            yOrigin = value;
+        }
+        if (count == keys.length) grow();
+        int slot = (head + count) % keys.length;
+        keys[slot] = key;
+        xs[slot] = x;
+        ys[slot] = value;
+        count++;
+        accumulate(x, value, 1);
+    }
+
+    // Slope per sample or per minute; NaN until the window holds enough points
+    public double slope() {
+        if (count < MIN_POINTS) return Double.NaN;
+        double denominator = count * sumXX - sumX * sumX;
+        if (denominator == 0) return Double.NaN;
+        return (count * sumXY - sumX * sumY) / denominator;
+    }
+
+    public int encodedSize() {
+        return Long.BYTES + Integer.BYTES + count * (2 * Long.BYTES + Double.BYTES);
+    }
+
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putLong(ordinal);
+        buffer.putInt(count);
+        for (int i = 0; i < count; i++) {
+            int slot = (head + i) % keys.length;
+            buffer.putLong(keys[slot]);
+            buffer.putLong(xs[slot]);
+            buffer.putDouble(ys[slot]);
+        }
+    }
+
+    // Replaces the window's points with the ones written by writeTo
+    public void readFrom(ByteBuffer buffer) {
+        ordinal = buffer.getLong();
+        int saved = buffer.getInt();
+        head = 0;
+        count = 0;
+        for (int i = 0; i < saved; i++) {
+            if (count == keys.length) grow();
+            keys[count] = buffer.getLong();
+            xs[count] = buffer.getLong();
+            ys[count] = buffer.getDouble();
+            count++;
+        }
+        if (count > 0) {
+            rebuild();
+        } else {
+            sumX = sumY = sumXY = sumXX = 0;
+            removals = 0;
+        }
+    }
+
+    static void skip(ByteBuffer buffer) {
+        buffer.getLong();
+        int saved = buffer.getInt();
+        buffer.position(buffer.position() + saved * (2 * Long.BYTES + Double.BYTES));
+    }
+
+    private void removeOldest() {
+        accumulate(xs[head], ys[head], -1);
+        head = (head + 1) % keys.length;
+        count--;
+        if (count == 0) {
+            sumX = sumY = sumXY = sumXX = 0;
+            removals = 0;
+        } else if (++removals >= Math.max(count, MIN_POINTS)) {
+            rebuild();
+        }
+    }
+
+    private void accumulate(long rawX, double rawY, int sign) {
+        double x = (rawX - xOrigin) / (spec.isDuration() ? MILLIS_PER_MINUTE : 1.0);
+        double y = rawY - yOrigin;
+        sumX += sign * x;
+        sumY += sign * y;
+        sumXY += sign * x * y;
+        sumXX += sign * x * x;
+    }
+
+    // Re-centres on the oldest point and resums, clearing rounding error from removals
+    private void rebuild() {
+        xOrigin = xs[head];
+        yOrigin = ys[head];
+        sumX = sumY = sumXY = sumXX = 0;
+        for (int i = 0; i < count; i++) {
+            int slot = (head + i) % keys.length;
+            accumulate(xs[slot], ys[slot], 1);
+        }
+        removals = 0;
+    }
+
+    private void grow() {
+        int capacity = keys.length * 2;
+        long[] newKeys = new long[capacity];
+        long[] newXs = new long[capacity];
+        double[] newYs = new double[capacity];
+        for (int i = 0; i < count; i++) {
+            int slot = (head + i) % keys.length;
+            newKeys[i] = keys[slot];
+            newXs[i] = xs[slot];
+            newYs[i] = ys[slot];
+        }
+        keys = newKeys;
+        xs = newXs;
+        ys = newYs;
+        head = 0;
+    }
+}
@@ -0,0 +1,302 @@
+package com.iot.analysisreport.service;
+
+import com.iot.analysisreport.history.DeviceHistory;
+import com.iot.common.dto.DeviceDataDto;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Runs device analysis on a fixed set of shards. Records go to the shard of their
+ * Kafka partition, and each shard is drained by one worker thread that owns the
+ * history of every device in it, so detector state has a single writer and needs no
+ * locks however many listener threads feed the engine. Listener threads wait for
+ * their batch, so offsets are committed only once its records have been analyzed.
+ *
+ * State is kept per partition together with the next offset it has not yet seen,
+ * so it can be checkpointed and resumed from the matching position in the topic.
+ * State of a partition this instance does not own (revoked, or restored but not yet
+ * assigned) is kept for a while in case the partition comes back, then dropped.
+ */
+@Service
+public class AnalysisEngine {
+
+    // Called on the shard's thread; replayed records only rebuild state and raise no alerts
+    @FunctionalInterface
+    public interface Analyzer {
+        void analyze(Map<String, DeviceHistory> histories, DeviceDataDto deviceData, boolean replay);
+    }
+
+    public static final class PartitionState {
+        private final int partition;
+        private final Map<String, DeviceHistory> histories;
+        private volatile long nextOffset;
+
+        PartitionState(int partition, Map<String, DeviceHistory> histories, long nextOffset) {
+            this.partition = partition;
+            this.histories = histories;
+            this.nextOffset = nextOffset;
+        }
+
+        public int partition() {
+            return partition;
+        }
+
+        public Map<String, DeviceHistory> histories() {
+            return histories;
+        }
+
+        public long nextOffset() {
+            return nextOffset;
+        }
+    }
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Partition p is analyzed by shard p % shards; more shards than partitions sit idle
+    @Value("${analysis.engine.shards:4}")
+    private int shardCount;
+
+    @Value("${analysis.engine.queue-capacity:1000}")
+    private int queueCapacity;
+
+    // How long state of a partition not owned by this instance is kept before it is dropped
+    @Value("${analysis.engine.unowned-retention-ms:300000}")
+    private long unownedRetentionMillis = 300000;
+
+    private Shard[] shards;
+    private volatile boolean running;
+
+    // Records below these offsets were analyzed before a restart and are replayed silently
+    private final Map<Integer, Long> replayBoundaries = new ConcurrentHashMap<>();
+
+    // Partitions whose state is held without owning them, and since when
+    private final Map<Integer, Long> unownedSince = new ConcurrentHashMap<>();
+
+    private Timer batchTimer;
+
+    @PostConstruct
+    public void initialize() {
+        batchTimer = Timer.builder("analysis.engine.batch")
+                .description("Time for the shards to analyze one listener batch")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        Gauge.builder("analysis.engine.queue.depth", this, AnalysisEngine::getQueueDepth)
+                .description("Batches waiting for a shard worker")
+                .register(meterRegistry);
+
+        running = true;
+        shards = new Shard[Math.max(1, shardCount)];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(i, queueCapacity);
+            shards[i].thread.start();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        for (Shard shard : shards) {
+            try {
+                shard.thread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // Returns once every record has been analyzed; records of one partition keep their order
+    public void process(List<ConsumerRecord<String, DeviceDataDto>> records, Analyzer analyzer) throws InterruptedException {
+        long start = System.nanoTime();
+
+        List<List<ConsumerRecord<String, DeviceDataDto>>> byShard = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            byShard.add(null);
+        }
+        int used = 0;
+        for (ConsumerRecord<String, DeviceDataDto> record : records) {
+            int shard = Math.floorMod(record.partition(), shards.length);
+            if (byShard.get(shard) == null) {
+                byShard.set(shard, new ArrayList<>());
+                used++;
+            }
+            byShard.get(shard).add(record);
+        }
+
+        CountDownLatch done = new CountDownLatch(used);
+        for (int i = 0; i < shards.length; i++) {
+            List<ConsumerRecord<String, DeviceDataDto>> batch = byShard.get(i);
+            if (batch == null) continue;
+            submit(i, partitions -> {
+                for (ConsumerRecord<String, DeviceDataDto> record : batch) {
+                    PartitionState state = partitions.get(record.partition());
+                    if (state == null) {
+                        state = new PartitionState(record.partition(), new HashMap<>(), record.offset());
+                        partitions.put(record.partition(), state);
+                    }
+                    if (record.value() != null) {
+                        boolean replay = record.offset() < replayBoundaries.getOrDefault(record.partition(), -1L);
+                        analyzer.analyze(state.histories, record.value(), replay);
+                    }
+                    state.nextOffset = record.offset() + 1;
+                }
+            }, done);
+        }
+        done.await();
+        batchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    // Next offset the partition's state has not seen, or -1 if this instance holds no state for it
+    public long nextOffset(int partition) {
+        PartitionState state = shards[Math.floorMod(partition, shards.length)].partitions.get(partition);
+        return state != null ? state.nextOffset : -1;
+    }
+
+    public void replayUntil(int partition, long offset) {
+        replayBoundaries.put(partition, offset);
+    }
+
+    // Installs state read from a checkpoint, replacing whatever the partition had; unowned until assigned
+    public void restore(int partition, Map<String, DeviceHistory> histories, long nextOffset) throws InterruptedException {
+        onShard(partition, partitions -> {
+            partitions.put(partition, new PartitionState(partition, histories, nextOffset));
+            unownedSince.put(partition, System.currentTimeMillis());
+        });
+    }
+
+    public void drop(int partition) throws InterruptedException {
+        onShard(partition, partitions -> {
+            partitions.remove(partition);
+            replayBoundaries.remove(partition);
+            unownedSince.remove(partition);
+        });
+    }
+
+    // Runs on the shard, so an assignment and a concurrent sweep of the same partition are ordered
+    public void assigned(int partition) throws InterruptedException {
+        onShard(partition, partitions -> unownedSince.remove(partition));
+    }
+
+    public void revoked(int partition) {
+        unownedSince.putIfAbsent(partition, System.currentTimeMillis());
+    }
+
+    // Drops state of partitions that were revoked, or restored and never assigned, before the retention period
+    @Scheduled(initialDelayString = "${analysis.engine.unowned-retention-ms:300000}",
+            fixedDelayString = "${analysis.engine.unowned-retention-ms:300000}")
+    public void dropUnowned() {
+        long cutoff = System.currentTimeMillis() - unownedRetentionMillis;
+        for (Map.Entry<Integer, Long> entry : unownedSince.entrySet()) {
+            int partition = entry.getKey();
+            long since = entry.getValue();
+            if (since > cutoff) continue;
+            try {
+                onShard(partition, partitions -> {
+                    if (unownedSince.remove(partition, since)) {
+                        partitions.remove(partition);
+                        replayBoundaries.remove(partition);
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IllegalStateException e) {
+                // Shutting down
+                return;
+            }
+        }
+    }
+
+    // Runs work on every shard's own thread, so it sees a consistent view of that shard's partitions
+    public void forEachShard(ObjIntConsumer<Collection<PartitionState>> work) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            int shard = i;
+            submit(i, partitions -> work.accept(partitions.values(), shard), done);
+        }
+        done.await();
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public int getQueueDepth() {
+        int depth = 0;
+        for (Shard shard : shards) {
+            depth += shard.queue.size();
+        }
+        return depth;
+    }
+
+    private void onShard(int partition, Consumer<Map<Integer, PartitionState>> work) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        submit(Math.floorMod(partition, shards.length), work, done);
+        done.await();
+    }
+
+    private void submit(int shard, Consumer<Map<Integer, PartitionState>> work, CountDownLatch done) throws InterruptedException {
+        if (!running) throw new IllegalStateException("Analysis engine is shut down");
+        shards[shard].queue.put(new Task(work, done));
+    }
+
+    private void runShard(Shard shard) {
+        while (running || !shard.queue.isEmpty()) {
+            Task task;
+            try {
+                task = shard.queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (task == null) continue;
+
+            try {
+                task.work.accept(shard.partitions);
+            } catch (Exception e) {
+                System.err.println("Error in analysis shard " + shard.index + ": " + e.getMessage());
+            } finally {
+                task.done.countDown();
+            }
+        }
+    }
+
+    private record Task(Consumer<Map<Integer, PartitionState>> work, CountDownLatch done) {}
+
+    private class Shard {
+        final int index;
+        final BlockingQueue<Task> queue;
+        final Thread thread;
+        // Written only by this shard's thread; concurrent so listeners can look up offsets
+        final Map<Integer, PartitionState> partitions = new ConcurrentHashMap<>();
+
+        Shard(int index, int capacity) {
+            this.index = index;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.thread = new Thread(() -> runShard(this), "analysis-shard-" + index);
+            this.thread.setDaemon(true);
+        }
+    }
+}
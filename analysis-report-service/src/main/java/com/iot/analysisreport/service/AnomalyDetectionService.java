@@ -1,38 +1,125 @@
 package com.iot.analysisreport.service;
 
+import com.iot.analysisreport.history.DeviceHistory;
+import com.iot.analysisreport.history.MetricDictionary;
+import com.iot.analysisreport.history.TrendWindow;
 import com.iot.common.config.KafkaTopics;
 import com.iot.common.dto.AlertDto;
 import com.iot.common.dto.DeviceDataDto;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.ConsumerSeekAware;
 import org.springframework.stereotype.Service;
 
+import jakarta.annotation.PostConstruct;
+import java.nio.ByteBuffer;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 
 @Service
-public class AnomalyDetectionService {
+public class AnomalyDetectionService implements ConsumerSeekAware {
+    
+    private static final Logger log = LoggerFactory.getLogger(AnomalyDetectionService.class);
     
     @Autowired
     private KafkaTemplate<String, Object> kafkaTemplate;
     
-    // Store recent data for trend analysis
-    private final Map<String, List<DeviceDataDto>> deviceDataHistory = new ConcurrentHashMap<>();
-    private final int MAX_HISTORY_SIZE = 100;
+    @Autowired
+    private AnalysisEngine analysisEngine;
+    
+    // Recent samples per device for the statistical and trend detectors
+    @Value("${analysis.history.size:100}")
+    private int historySize = 100;
+    
+    // Above 0, the 3-sigma check uses an EWMA mean and variance instead of the window's
+    @Value("${analysis.statistical.ewma-alpha:0}")
+    private double ewmaAlpha;
+    
+    // metric=window:threshold entries; * covers metrics without their own
+    @Value("${analysis.trend.windows:*=10:0.5}")
+    private String trendWindows;
+    
+    // A partition's state further behind the committed position than this is dropped instead of caught up
+    @Value("${analysis.checkpoint.max-replay-records:1000000}")
+    private long maxReplayRecords;
+    
+    private Map<String, List<TrendWindow.Spec>> trendSpecs;
+    
+    // Device histories live in the engine's shards; metric ids are shared by all of them
+    private final MetricDictionary metricDictionary = new MetricDictionary();
+    
+    @PostConstruct
+    public void initialize() {
+        trendSpecs = TrendWindow.Spec.parse(trendWindows);
+    }
+    
+    // Scales with analysis.kafka.concurrency; each device is analyzed on its partition's shard
+    @KafkaListener(topics = KafkaTopics.DEVICE_DATA_PROCESSED, groupId = "analysis-group",
+            containerFactory = "batchKafkaListenerContainerFactory")
+    public void analyzeDeviceData(List<ConsumerRecord<String, DeviceDataDto>> records) throws InterruptedException {
+        analysisEngine.process(records, this::analyze);
+    }
+    
+    // Resume each partition where its restored or retained state ends, so history has no gap
+    @Override
+    public void onPartitionsAssigned(Map<TopicPartition, Long> assignments, ConsumerSeekCallback callback) {
+        for (Map.Entry<TopicPartition, Long> assignment : assignments.entrySet()) {
+            TopicPartition partition = assignment.getKey();
+            if (!KafkaTopics.DEVICE_DATA_PROCESSED.equals(partition.topic())) continue;
+            
+            try {
+                analysisEngine.assigned(partition.partition());
+                long committed = assignment.getValue();
+                long stateOffset = analysisEngine.nextOffset(partition.partition());
+                if (stateOffset < 0 || stateOffset == committed) continue;
+                
+                if (committed - stateOffset > maxReplayRecords) {
+                    System.out.println("Dropping analysis state for partition " + partition.partition()
+                            + ": " + (committed - stateOffset) + " records behind the committed offset");
+                    analysisEngine.drop(partition.partition());
+                    continue;
+                }
+                // Records before the committed offset were analyzed by the previous owner and only rebuild state
+                analysisEngine.replayUntil(partition.partition(), committed);
+                callback.seek(partition.topic(), partition.partition(), stateOffset);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+    
+    // Kept for a while in case the partition comes back, e.g. in an eager rebalance; see AnalysisEngine
+    @Override
+    public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+        for (TopicPartition partition : partitions) {
+            if (KafkaTopics.DEVICE_DATA_PROCESSED.equals(partition.topic())) {
+                analysisEngine.revoked(partition.partition());
+            }
+        }
+    }
     
-    @KafkaListener(topics = KafkaTopics.DEVICE_DATA_PROCESSED, groupId = "analysis-group")
-    public void analyzeDeviceData(DeviceDataDto deviceData) {
+    // Runs on the shard that owns the device, so its history has a single writer
+    private void analyze(Map<String, DeviceHistory> histories, DeviceDataDto deviceData, boolean replay) {
         try {
-            System.out.println("Analyzing device data for device: " + deviceData.getDeviceId());
+            if (log.isDebugEnabled()) {
+                log.debug("Analyzing device data for device: {}", deviceData.getDeviceId());
+            }
             
             // Store data in history
-            storeDataInHistory(deviceData);
+            DeviceHistory history = storeDataInHistory(histories, deviceData);
+            if (replay) return;
             
             // Perform various anomaly detection algorithms
-            detectStatisticalAnomalies(deviceData);
-            detectTrendAnomalies(deviceData);
+            detectStatisticalAnomalies(history, deviceData);
+            detectTrendAnomalies(history, deviceData);
             detectPatternAnomalies(deviceData);
             
         } catch (Exception e) {
@@ -56,44 +143,32 @@ public class AnomalyDetectionService {
         }
     }
     
-    private void storeDataInHistory(DeviceDataDto deviceData) {
-        deviceDataHistory.computeIfAbsent(deviceData.getDeviceId(), k -> new ArrayList<>())
-                .add(deviceData);
-        
-        // Keep only recent data
-        List<DeviceDataDto> history = deviceDataHistory.get(deviceData.getDeviceId());
-        if (history.size() > MAX_HISTORY_SIZE) {
-            history.remove(0);
-        }
+    private DeviceHistory storeDataInHistory(Map<String, DeviceHistory> histories, DeviceDataDto deviceData) {
+        // The ring overwrites the oldest sample once full
+        LocalDateTime timestamp = deviceData.getTimestamp() != null ? deviceData.getTimestamp() : LocalDateTime.now();
+        DeviceHistory history = histories.computeIfAbsent(deviceData.getDeviceId(), k -> newHistory());
+        history.append(deviceData.getData(), timestamp.toInstant(ZoneOffset.UTC).toEpochMilli(), metricDictionary);
+        return history;
     }
     
-    private void detectStatisticalAnomalies(DeviceDataDto deviceData) {
-        List<DeviceDataDto> history = deviceDataHistory.get(deviceData.getDeviceId());
-        if (history == null || history.size() < 10) return; // Need enough data for statistical analysis
+    private void detectStatisticalAnomalies(DeviceHistory history, DeviceDataDto deviceData) {
+        if (history.size() < 10) return; // Need enough data for statistical analysis
         
         Map<String, Object> currentData = deviceData.getData();
         if (currentData == null) return;
         
-        for (String key : currentData.keySet()) {
-            Object value = currentData.get(key);
-            if (!(value instanceof Number)) continue;
-            
-            double currentValue = ((Number) value).doubleValue();
+        for (Map.Entry<String, Object> entry : currentData.entrySet()) {
+            if (!(entry.getValue() instanceof Number)) continue;
             
-            // Calculate statistics from history
-            List<Double> values = history.stream()
-                    .map(d -> d.getData().get(key))
-                    .filter(Objects::nonNull)
-                    .filter(v -> v instanceof Number)
-                    .map(v -> ((Number) v).doubleValue())
-                    .toList();
+            String key = entry.getKey();
+            double currentValue = ((Number) entry.getValue()).doubleValue();
+            int metric = metricDictionary.idOf(key);
             
-            if (values.size() < 5) continue;
+            // Statistics are kept up to date by the history as samples enter and leave it
+            if (history.count(metric) < 5) continue;
             
-            double mean = values.stream().mapToDouble(Double::doubleValue).average().orElse(0.0);
-            double variance = values.stream()
-                    .mapToDouble(v -> Math.pow(v - mean, 2))
-                    .average().orElse(0.0);
+            double mean = ewmaAlpha > 0 ? history.ewmaMean(metric) : history.mean(metric);
+            double variance = ewmaAlpha > 0 ? history.ewmaVariance(metric) : history.variance(metric);
             double stdDev = Math.sqrt(variance);
             
             // Check for statistical anomaly (3-sigma rule)
@@ -103,36 +178,27 @@ public class AnomalyDetectionService {
         }
     }
     
-    private void detectTrendAnomalies(DeviceDataDto deviceData) {
-        List<DeviceDataDto> history = deviceDataHistory.get(deviceData.getDeviceId());
-        if (history == null || history.size() < 20) return;
+    private void detectTrendAnomalies(DeviceHistory history, DeviceDataDto deviceData) {
+        if (history.size() < 20) return;
         
         Map<String, Object> currentData = deviceData.getData();
         if (currentData == null) return;
         
-        for (String key : currentData.keySet()) {
-            Object value = currentData.get(key);
-            if (!(value instanceof Number)) continue;
-            
-            double currentValue = ((Number) value).doubleValue();
+        for (Map.Entry<String, Object> entry : currentData.entrySet()) {
+            if (!(entry.getValue() instanceof Number)) continue;
             
-            // Get recent values for trend analysis
-            List<Double> recentValues = history.stream()
-                    .skip(Math.max(0, history.size() - 10))
-                    .map(d -> d.getData().get(key))
-                    .filter(Objects::nonNull)
-                    .filter(v -> v instanceof Number)
-                    .map(v -> ((Number) v).doubleValue())
-                    .toList();
+            String key = entry.getKey();
+            double currentValue = ((Number) entry.getValue()).doubleValue();
             
-            if (recentValues.size() < 5) continue;
-            
-            // Calculate trend (simple linear regression slope)
-            double trend = calculateTrend(recentValues);
-            
-            // Check for significant trend change
-            if (Math.abs(trend) > 0.5) { // Threshold for trend significance
-                createTrendAnomalyAlert(deviceData, key, currentValue, trend);
+            // Linear regression slope over each configured window, maintained as samples arrive
+            for (TrendWindow window : history.trends(metricDictionary.idOf(key))) {
+                double trend = window.slope();
+                if (Double.isNaN(trend)) continue;
+                
+                // Check for significant trend change
+                if (Math.abs(trend) > window.spec().threshold()) {
+                    createTrendAnomalyAlert(deviceData, key, currentValue, trend, window.spec().window());
+                }
             }
         }
     }
@@ -162,20 +228,26 @@ public class AnomalyDetectionService {
         }
     }
     
-    private double calculateTrend(List<Double> values) {
-        if (values.size() < 2) return 0.0;
-        
-        double sumX = 0, sumY = 0, sumXY = 0, sumXX = 0;
-        int n = values.size();
-        
-        for (int i = 0; i < n; i++) {
-            sumX += i;
-            sumY += values.get(i);
-            sumXY += i * values.get(i);
-            sumXX += i * i;
-        }
-        
-        return (n * sumXY - sumX * sumY) / (n * sumXX - sumX * sumX);
+    private DeviceHistory newHistory() {
+        return new DeviceHistory(historySize, ewmaAlpha, this::trendSpecsFor);
+    }
+    
+    // Reads a history written by DeviceHistory.writeTo into the current settings
+    DeviceHistory readHistory(ByteBuffer buffer) {
+        return DeviceHistory.readFrom(buffer, metricDictionary, historySize, ewmaAlpha, this::trendSpecsFor);
+    }
+    
+    void writeHistory(DeviceHistory history, ByteBuffer buffer) {
+        history.writeTo(buffer, metricDictionary);
+    }
+    
+    int encodedSize(DeviceHistory history) {
+        return history.encodedSize(metricDictionary);
+    }
+    
+    private List<TrendWindow.Spec> trendSpecsFor(String metric) {
+        List<TrendWindow.Spec> specs = trendSpecs.get(metric);
+        return specs != null ? specs : trendSpecs.getOrDefault(TrendWindow.ANY_METRIC, List.of());
     }
     
     private void createStatisticalAnomalyAlert(DeviceDataDto deviceData, String parameter, 
@@ -202,7 +274,7 @@ public class AnomalyDetectionService {
     }
     
     private void createTrendAnomalyAlert(DeviceDataDto deviceData, String parameter, 
-                                       double currentValue, double trend) {
+                                       double currentValue, double trend, String window) {
         AlertDto alert = new AlertDto();
         alert.setAlertId(UUID.randomUUID().toString());
         alert.setDeviceId(deviceData.getDeviceId());
@@ -217,6 +289,7 @@ public class AnomalyDetectionService {
                 "parameter", parameter,
                 "currentValue", currentValue,
                 "trend", trend,
+                "window", window,
                 "anomalyType", "TREND"
         ));
         
@@ -0,0 +1,307 @@
+package com.iot.analysisreport.service;
+
+import com.iot.analysisreport.history.DeviceHistory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Periodic snapshots of detector state, so a restarted instance resumes with warm
+ * histories instead of waiting for every device to refill its windows. Each shard
+ * encodes its partitions into its own memory-mapped file on its own thread, so a
+ * snapshot takes no locks and every partition is saved together with the offset its
+ * state has reached. On startup the files are read back into the shards and the
+ * listener seeks each partition to that offset (see AnomalyDetectionService).
+ *
+ * File layout: magic (int), version (int), written-at millis (long), body length
+ * (int), crc32 of the body (int), then the body: partition count and, per partition,
+ * its number, next offset, device count and each device's id and encoded history.
+ * Files are written under a temporary name and renamed once flushed, so a crash
+ * mid-snapshot leaves the previous one in place.
+ */
+@Service
+public class DetectorCheckpointService {
+
+    private static final String FILE_PREFIX = "shard-";
+    private static final String FILE_SUFFIX = ".ckpt";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int MAGIC = 0x494F5443;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 24;
+
+    @Autowired
+    private AnalysisEngine analysisEngine;
+
+    @Autowired
+    private AnomalyDetectionService anomalyDetectionService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${analysis.checkpoint.enabled:true}")
+    private boolean enabled;
+
+    @Value("${analysis.checkpoint.directory:checkpoint}")
+    private String directory;
+
+    private Path checkpointDir;
+
+    private volatile long lastCheckpointBytes;
+    private volatile long lastCheckpointMillis;
+
+    private Timer checkpointTimer;
+    private Counter failures;
+
+    @PostConstruct
+    public void initialize() throws IOException {
+        checkpointTimer = Timer.builder("analysis.checkpoint.duration")
+                .description("Time to snapshot detector state of all shards")
+                .register(meterRegistry);
+        failures = Counter.builder("analysis.checkpoint.failures")
+                .description("Shard snapshots that could not be written")
+                .register(meterRegistry);
+        Gauge.builder("analysis.checkpoint.bytes", this, DetectorCheckpointService::getLastCheckpointBytes)
+                .description("Size of the last detector state snapshot")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("analysis.checkpoint.age", this, DetectorCheckpointService::getCheckpointAgeSeconds)
+                .description("Seconds since the last complete snapshot")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+
+        if (!enabled) return;
+
+        checkpointDir = Paths.get(directory);
+        Files.createDirectories(checkpointDir);
+        restore();
+    }
+
+    // Runs before the engine shuts down, once the listener containers have stopped
+    @PreDestroy
+    public void shutdown() {
+        checkpoint();
+    }
+
+    @Scheduled(initialDelayString = "${analysis.checkpoint.interval-ms:60000}",
+            fixedDelayString = "${analysis.checkpoint.interval-ms:60000}")
+    public synchronized void checkpoint() {
+        if (!enabled) return;
+
+        long start = System.nanoTime();
+        int shardCount = analysisEngine.getShardCount();
+        MappedByteBuffer[] written = new MappedByteBuffer[shardCount];
+        try {
+            // Encoding runs on the shard threads; flushing and renaming stay off them
+            analysisEngine.forEachShard((partitions, shard) -> {
+                try {
+                    written[shard] = encodeShard(shard, partitions);
+                } catch (Exception e) {
+                    System.err.println("Error writing analysis checkpoint for shard " + shard + ": " + e.getMessage());
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (IllegalStateException e) {
+            System.err.println("Skipping analysis checkpoint: " + e.getMessage());
+            return;
+        }
+
+        long bytes = 0;
+        boolean complete = true;
+        for (int shard = 0; shard < shardCount; shard++) {
+            try {
+                if (written[shard] == null) throw new IOException("shard was not encoded");
+                bytes += seal(written[shard]);
+                Files.move(tempFile(shard), shardFile(shard),
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                complete = false;
+                failures.increment();
+                System.err.println("Error saving analysis checkpoint for shard " + shard + ": " + e.getMessage());
+            }
+        }
+        // Files of a previous run with more shards were restored into the current ones
+        if (complete) {
+            deleteShardFilesFrom(shardCount);
+            lastCheckpointMillis = System.currentTimeMillis();
+        }
+        lastCheckpointBytes = bytes;
+        checkpointTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    public long getLastCheckpointBytes() {
+        return lastCheckpointBytes;
+    }
+
+    public double getCheckpointAgeSeconds() {
+        long last = lastCheckpointMillis;
+        return last == 0 ? 0 : (System.currentTimeMillis() - last) / 1000.0;
+    }
+
+    // Called on the shard's thread; sizes the file exactly, then writes the body behind an empty header
+    private MappedByteBuffer encodeShard(int shard, Collection<AnalysisEngine.PartitionState> partitions) throws IOException {
+        long bodyBytes = Integer.BYTES;
+        for (AnalysisEngine.PartitionState state : partitions) {
+            bodyBytes += Integer.BYTES + Long.BYTES + Integer.BYTES;
+            for (Map.Entry<String, DeviceHistory> device : state.histories().entrySet()) {
+                bodyBytes += DeviceHistory.encodedSize(device.getKey()) + anomalyDetectionService.encodedSize(device.getValue());
+            }
+        }
+        if (HEADER_BYTES + bodyBytes > Integer.MAX_VALUE) {
+            throw new IOException(bodyBytes + " bytes exceed a single mapping; use more shards");
+        }
+
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(tempFile(shard), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + bodyBytes);
+        }
+        buffer.position(HEADER_BYTES);
+        buffer.putInt(partitions.size());
+        for (AnalysisEngine.PartitionState state : partitions) {
+            buffer.putInt(state.partition());
+            buffer.putLong(state.nextOffset());
+            buffer.putInt(state.histories().size());
+            for (Map.Entry<String, DeviceHistory> device : state.histories().entrySet()) {
+                DeviceHistory.writeString(buffer, device.getKey());
+                anomalyDetectionService.writeHistory(device.getValue(), buffer);
+            }
+        }
+        return buffer;
+    }
+
+    // Checksums the body, fills in the header last and flushes the mapping to disk
+    private long seal(MappedByteBuffer buffer) {
+        int bodyBytes = buffer.capacity() - HEADER_BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().position(HEADER_BYTES));
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putLong(8, System.currentTimeMillis());
+        buffer.putInt(16, bodyBytes);
+        buffer.putInt(20, (int) crc.getValue());
+        buffer.force();
+        return buffer.capacity();
+    }
+
+    private void restore() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> listing = Files.list(checkpointDir)) {
+            listing.forEach(file -> {
+                String name = file.getFileName().toString();
+                if (name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX)) {
+                    files.add(file);
+                } else if (name.endsWith(TEMP_SUFFIX)) {
+                    // Left by a snapshot that did not finish
+                    try {
+                        Files.deleteIfExists(file);
+                    } catch (IOException ignored) {
+                    }
+                }
+            });
+        }
+
+        long start = System.nanoTime();
+        int partitionCount = 0;
+        int deviceCount = 0;
+        for (Path file : files) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                if (channel.size() < HEADER_BYTES || channel.size() > Integer.MAX_VALUE) {
+                    throw new IOException("unexpected size " + channel.size());
+                }
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                    throw new IOException("not a version " + VERSION + " checkpoint");
+                }
+                int bodyBytes = buffer.getInt(16);
+                if (bodyBytes != buffer.capacity() - HEADER_BYTES) {
+                    throw new IOException("truncated");
+                }
+                CRC32 crc = new CRC32();
+                crc.update(buffer.duplicate().position(HEADER_BYTES));
+                if ((int) crc.getValue() != buffer.getInt(20)) {
+                    throw new IOException("checksum mismatch");
+                }
+
+                buffer.position(HEADER_BYTES);
+                int partitions = buffer.getInt();
+                for (int p = 0; p < partitions; p++) {
+                    int partition = buffer.getInt();
+                    long nextOffset = buffer.getLong();
+                    int devices = buffer.getInt();
+                    Map<String, DeviceHistory> histories = new HashMap<>(Math.max(16, devices * 4 / 3 + 1));
+                    for (int d = 0; d < devices; d++) {
+                        String deviceId = DeviceHistory.readString(buffer);
+                        histories.put(deviceId, anomalyDetectionService.readHistory(buffer));
+                    }
+                    // A partition seen in several files, e.g. after the shard count changed, keeps its newest state
+                    if (nextOffset > analysisEngine.nextOffset(partition)) {
+                        analysisEngine.restore(partition, histories, nextOffset);
+                        partitionCount++;
+                        deviceCount += devices;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Skipping analysis checkpoint " + file.getFileName() + ": " + e.getMessage());
+            }
+        }
+
+        if (!files.isEmpty()) {
+            System.out.println("Restored analysis state for " + deviceCount + " devices in " + partitionCount
+                    + " partitions in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        }
+    }
+
+    private void deleteShardFilesFrom(int shardCount) {
+        try (Stream<Path> listing = Files.list(checkpointDir)) {
+            listing.forEach(file -> {
+                String name = file.getFileName().toString();
+                if (!name.startsWith(FILE_PREFIX) || !name.endsWith(FILE_SUFFIX)) return;
+                try {
+                    int shard = Integer.parseInt(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()));
+                    if (shard >= shardCount) Files.deleteIfExists(file);
+                } catch (NumberFormatException | IOException e) {
+                    System.err.println("Error removing stale analysis checkpoint " + name + ": " + e.getMessage());
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Error listing analysis checkpoints: " + e.getMessage());
+        }
+    }
+
+    private Path shardFile(int shard) {
+        return checkpointDir.resolve(FILE_PREFIX + shard + FILE_SUFFIX);
+    }
+
+    private Path tempFile(int shard) {
+        return checkpointDir.resolve(FILE_PREFIX + shard + FILE_SUFFIX + TEMP_SUFFIX);
+    }
+}
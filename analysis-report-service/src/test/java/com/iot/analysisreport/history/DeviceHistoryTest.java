@@ -0,0 +1,175 @@
+package com.iot.analysisreport.history;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Replays synthetic samples through DeviceHistory and checks its running window
+ * statistics against the two-pass mean and variance the statistical detector used to
+ * compute over the retained samples, and that both give the same 3-sigma decisions.
+ */
+class DeviceHistoryTest {
+
+    private static final String[] METRICS = {"temperature", "pressure", "vibration"};
+    private static final double RELATIVE_TOLERANCE = 1e-9;
+
+    @Test
+    void replayMatchesTwoPassStatistics() {
+        int capacity = 100;
+        MetricDictionary dictionary = new MetricDictionary();
+        DeviceHistory history = newHistory(capacity);
+        ArrayDeque<Map<String, Object>> window = new ArrayDeque<>();
+
+        // A large offset makes cancellation errors visible; gaps and spikes exercise missing values and outliers
+        Random random = new Random(7);
+        int decisions = 0;
+        int anomalies = 0;
+        for (int sample = 0; sample < 200_000; sample++) {
+            Map<String, Object> data = new HashMap<>();
+            for (int m = 0; m < METRICS.length; m++) {
+                if (random.nextInt(10) == 0) continue;
+                double value = 1e4 * (m + 1) + random.nextGaussian() * (m + 1);
+                if (random.nextInt(200) == 0) value += 50 * (m + 1);
+                data.put(METRICS[m], value);
+            }
+
+            history.append(data, sample * 1000L, dictionary);
+            window.addLast(data);
+            if (window.size() > capacity) window.removeFirst();
+
+            for (String name : METRICS) {
+                int metric = dictionary.idOf(name);
+                double[] expected = twoPass(window, name);
+                assertEquals((int) expected[0], history.count(metric), name + " count at sample " + sample);
+                assertClose(expected[1], history.mean(metric), name + " mean at sample " + sample);
+                assertEquals(expected[2], history.variance(metric),
+                        Math.max(1e-12, Math.abs(expected[2]) * RELATIVE_TOLERANCE), name + " variance at sample " + sample);
+
+                // The detector's check, as in AnomalyDetectionService.detectStatisticalAnomalies
+                Object current = data.get(name);
+                if (current == null || history.count(metric) < 5) continue;
+                double value = (Double) current;
+                double expectedDeviation = Math.abs(value - expected[1]) - 3 * Math.sqrt(expected[2]);
+                if (Math.abs(expectedDeviation) < 1e-6 * Math.abs(value)) continue;
+                boolean expectedAnomaly = expectedDeviation > 0;
+                boolean anomaly = Math.abs(value - history.mean(metric)) > 3 * Math.sqrt(history.variance(metric));
+                assertEquals(expectedAnomaly, anomaly, name + " 3-sigma decision at sample " + sample);
+                decisions++;
+                if (anomaly) anomalies++;
+            }
+        }
+        assertTrue(anomalies > 0 && decisions > anomalies, "Replay should exercise both 3-sigma outcomes");
+    }
+
+    @Test
+    void ringWrapsAroundOldestFirst() {
+        MetricDictionary dictionary = new MetricDictionary();
+        DeviceHistory history = newHistory(4);
+        for (int sample = 0; sample < 10; sample++) {
+            history.append(Map.of("temperature", (double) sample), sample * 1000L, dictionary);
+        }
+
+        int metric = dictionary.idOf("temperature");
+        assertEquals(4, history.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(6.0 + i, history.value(metric, i));
+        }
+        assertEquals(4, history.count(metric));
+        assertEquals(7.5, history.mean(metric), 1e-12);
+        assertEquals(1.25, history.variance(metric), 1e-12);
+    }
+
+    @Test
+    void missingMetricsLeaveGapsAndEmptyWindows() {
+        MetricDictionary dictionary = new MetricDictionary();
+        DeviceHistory history = newHistory(5);
+        history.append(Map.of("temperature", 20.0, "pressure", 3.0), 0, dictionary);
+        history.append(Map.of("temperature", 22.0, "status", "OK"), 1000, dictionary);
+        history.append(Map.of("temperature", 24.0), 2000, dictionary);
+
+        int temperature = dictionary.idOf("temperature");
+        int pressure = dictionary.idOf("pressure");
+        assertEquals(3, history.size());
+        assertEquals(1, history.count(pressure));
+        assertEquals(3.0, history.value(pressure, 0));
+        assertTrue(Double.isNaN(history.value(pressure, 1)));
+        assertEquals(22.0, history.mean(temperature), 1e-12);
+
+        // Once the only pressure value leaves the window its statistics are empty, not stale
+        for (int sample = 3; sample < 8; sample++) {
+            history.append(Map.of("temperature", 24.0), sample * 1000L, dictionary);
+        }
+        assertEquals(0, history.count(pressure));
+        assertEquals(0.0, history.mean(pressure));
+        assertEquals(0.0, history.variance(pressure));
+
+        // Metrics never seen read as absent
+        int unseen = dictionary.idOf("humidity");
+        assertEquals(0, history.count(unseen));
+        assertTrue(Double.isNaN(history.value(unseen, 0)));
+    }
+
+    @Test
+    void periodicRecomputeBoundsDrift() {
+        // Sliding removals at a large offset lose precision; the per-window rebuild keeps it from accumulating
+        int capacity = 16;
+        MetricDictionary dictionary = new MetricDictionary();
+        DeviceHistory history = newHistory(capacity);
+        ArrayDeque<Map<String, Object>> window = new ArrayDeque<>();
+        Random random = new Random(11);
+        int metric = dictionary.idOf("pressure");
+
+        double worst = 0;
+        for (int sample = 0; sample < 200_000; sample++) {
+            Map<String, Object> data = Map.of("pressure", 1e9 + random.nextDouble());
+            history.append(data, sample * 1000L, dictionary);
+            window.addLast(data);
+            if (window.size() > capacity) window.removeFirst();
+
+            double[] expected = twoPass(window, "pressure");
+            if (expected[2] > 0) {
+                worst = Math.max(worst, Math.abs(history.variance(metric) - expected[2]) / expected[2]);
+            }
+        }
+        // About 5e-6 with the rebuild and over 5e-4 without it
+        assertTrue(worst < 1e-4, "Variance drifted by " + worst + " relative");
+    }
+
+    private static DeviceHistory newHistory(int capacity) {
+        return new DeviceHistory(capacity, 0.0, name -> List.of());
+    }
+
+    // Count, mean and population variance of the metric over the retained samples, in two passes
+    private static double[] twoPass(ArrayDeque<Map<String, Object>> window, String metric) {
+        int n = 0;
+        double sum = 0;
+        for (Map<String, Object> data : window) {
+            Object value = data.get(metric);
+            if (value instanceof Number number) {
+                sum += number.doubleValue();
+                n++;
+            }
+        }
+        double mean = n > 0 ? sum / n : 0;
+        double squares = 0;
+        for (Map<String, Object> data : window) {
+            Object value = data.get(metric);
+            if (value instanceof Number number) {
+                squares += (number.doubleValue() - mean) * (number.doubleValue() - mean);
+            }
+        }
+        return new double[] {n, mean, n > 0 ? squares / n : 0};
+    }
+
+    private static void assertClose(double expected, double actual, String message) {
+        assertEquals(expected, actual, Math.max(1e-12, Math.abs(expected) * RELATIVE_TOLERANCE), message);
+    }
+}
@@ -0,0 +1,166 @@
+package com.iot.analysisreport.service;
+
+import com.iot.common.config.KafkaTopics;
+import com.iot.common.dto.AlertDto;
+import com.iot.common.dto.DeviceDataDto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Feeds a seeded, partitioned workload through AnomalyDetectionService from several
+ * listener threads into several shards, and checks every device raised exactly the
+ * alerts of a single-listener, single-shard run, in the same order.
+ */
+class AnalysisEngineTest {
+
+    private static final int PARTITIONS = 8;
+    private static final int DEVICES = 240;
+    private static final int SAMPLES_PER_DEVICE = 80;
+    private static final int BATCH_SIZE = 200;
+    private static final String TREND_WINDOWS = "*=10:0.5,temperature=5m:0.2";
+
+    private static List<List<ConsumerRecord<String, DeviceDataDto>>> partitions;
+    private static Map<String, List<String>> expectedAlerts;
+
+    @BeforeAll
+    static void generateWorkload() throws Exception {
+        partitions = new ArrayList<>();
+        for (int p = 0; p < PARTITIONS; p++) {
+            partitions.add(new ArrayList<>());
+        }
+
+        // Noise around 25 °C with spikes for the 3-sigma check and ramps for the trend check
+        Random random = new Random(42);
+        LocalDateTime start = LocalDateTime.of(2024, 1, 15, 10, 0);
+        for (int sample = 0; sample < SAMPLES_PER_DEVICE; sample++) {
+            for (int device = 0; device < DEVICES; device++) {
+                String deviceId = String.format("device-%04d", device);
+                double temperature = 25.0 + random.nextGaussian();
+                if (random.nextInt(50) == 0) {
+                    temperature += 15;
+                } else if ((sample / 20 + device) % 5 == 0) {
+                    temperature += (sample % 20) * 0.8;
+                }
+
+                Map<String, Object> data = new HashMap<>();
+                data.put("temperature", temperature);
+                data.put("pressure", 3.0 + random.nextGaussian() * 0.1);
+                DeviceDataDto deviceData = new DeviceDataDto(deviceId, start.plusSeconds(sample * 10L), data);
+
+                int partition = Math.floorMod(deviceId.hashCode(), PARTITIONS);
+                List<ConsumerRecord<String, DeviceDataDto>> records = partitions.get(partition);
+                records.add(new ConsumerRecord<>(KafkaTopics.DEVICE_DATA_PROCESSED, partition, records.size(),
+                        deviceId, deviceData));
+            }
+        }
+
+        expectedAlerts = run(1, 1);
+        assertFalse(expectedAlerts.isEmpty(), "Workload should raise alerts");
+    }
+
+    @ParameterizedTest(name = "{0} shards, {1} listeners")
+    @CsvSource({"1, 4", "2, 3", "4, 2", "4, 4", "8, 8"})
+    void alertsMatchSequentialRun(int shards, int listeners) throws Exception {
+        for (int round = 0; round < 3; round++) {
+            assertEquals(expectedAlerts, run(shards, listeners),
+                    "Alerts with " + shards + " shards and " + listeners + " listeners differ from the sequential run");
+        }
+    }
+
+    private static Map<String, List<String>> run(int shards, int listeners) throws Exception {
+        AnalysisEngine engine = new AnalysisEngine();
+        ReflectionTestUtils.setField(engine, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(engine, "shardCount", shards);
+        ReflectionTestUtils.setField(engine, "queueCapacity", 100);
+        engine.initialize();
+
+        AlertRecorder alerts = new AlertRecorder();
+        AnomalyDetectionService service = new AnomalyDetectionService();
+        ReflectionTestUtils.setField(service, "kafkaTemplate", alerts);
+        ReflectionTestUtils.setField(service, "analysisEngine", engine);
+        ReflectionTestUtils.setField(service, "trendWindows", TREND_WINDOWS);
+        service.initialize();
+
+        ExecutorService listenerThreads = Executors.newFixedThreadPool(listeners);
+        try {
+            List<Future<?>> running = new ArrayList<>();
+            for (int i = 0; i < listeners; i++) {
+                int listener = i;
+                running.add(listenerThreads.submit(() -> {
+                    feed(service, listeners, listener);
+                    return null;
+                }));
+            }
+            for (Future<?> listener : running) {
+                listener.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            listenerThreads.shutdownNow();
+            engine.shutdown();
+        }
+        return alerts.byDevice;
+    }
+
+    // One listener thread: polls its partitions in turn, as a consumer with several assigned partitions does
+    private static void feed(AnomalyDetectionService service, int listenerCount, int listener) throws InterruptedException {
+        List<List<ConsumerRecord<String, DeviceDataDto>>> assigned = new ArrayList<>();
+        for (int p = listener; p < PARTITIONS; p += listenerCount) {
+            assigned.add(partitions.get(p));
+        }
+        if (assigned.isEmpty()) return;
+        int perPartition = Math.max(1, BATCH_SIZE / assigned.size());
+
+        for (int offset = 0; ; offset += perPartition) {
+            List<ConsumerRecord<String, DeviceDataDto>> batch = new ArrayList<>(BATCH_SIZE);
+            for (List<ConsumerRecord<String, DeviceDataDto>> partition : assigned) {
+                if (offset < partition.size()) {
+                    batch.addAll(partition.subList(offset, Math.min(partition.size(), offset + perPartition)));
+                }
+            }
+            if (batch.isEmpty()) return;
+            service.analyzeDeviceData(batch);
+        }
+    }
+
+    // Keeps alert messages per device in the order they were sent; ids and timestamps differ per run
+    private static final class AlertRecorder extends KafkaTemplate<String, Object> {
+
+        final Map<String, List<String>> byDevice = new ConcurrentHashMap<>();
+
+        AlertRecorder() {
+            super(() -> {
+                throw new UnsupportedOperationException("Alerts are recorded, not produced");
+            });
+        }
+
+        @Override
+        public CompletableFuture<SendResult<String, Object>> send(String topic, String key, Object data) {
+            byDevice.computeIfAbsent(key, k -> Collections.synchronizedList(new ArrayList<>()))
+                    .add(((AlertDto) data).getMessage());
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+}
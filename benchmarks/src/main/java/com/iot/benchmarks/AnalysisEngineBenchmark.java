@@ -0,0 +1,156 @@
+package com.iot.benchmarks;
+
+import com.iot.analysisreport.service.AnalysisEngine;
+import com.iot.analysisreport.service.AnomalyDetectionService;
+import com.iot.common.config.KafkaTopics;
+import com.iot.common.dto.DeviceDataDto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time for the sharded analysis path to take a fixed, partitioned workload fed to
+ * AnomalyDetectionService from several listener threads at once, as the container does
+ * with analysis.kafka.concurrency above 1. That alerts stay the same as a sequential
+ * run is checked by AnalysisEngineTest in analysis-report-service.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AnalysisEngineBenchmark {
+
+    private static final int PARTITIONS = 12;
+    private static final int DEVICES = 1200;
+    private static final int SAMPLES_PER_DEVICE = 200;
+    private static final int BATCH_SIZE = 500;
+
+    @Param({"1", "2", "4", "8"})
+    private int shards;
+
+    @Param({"1", "3", "6"})
+    private int listeners;
+
+    private List<List<ConsumerRecord<String, DeviceDataDto>>> partitions;
+    private ExecutorService listenerThreads;
+
+    private AnalysisEngine engine;
+    private AnomalyDetectionService service;
+
+    @Setup(Level.Trial)
+    public void generateWorkload() {
+        partitions = new ArrayList<>();
+        for (int p = 0; p < PARTITIONS; p++) {
+            partitions.add(new ArrayList<>());
+        }
+
+        // Noise around 25 °C with spikes for the 3-sigma check and ramps for the trend check
+        Random random = new Random(42);
+        for (int sample = 0; sample < SAMPLES_PER_DEVICE; sample++) {
+            for (int device = 0; device < DEVICES; device++) {
+                String deviceId = String.format("device-%04d", device);
+                double temperature = 25.0 + random.nextGaussian();
+                if (random.nextInt(100) == 0) {
+                    temperature += 15;
+                } else if ((sample / 25 + device) % 7 == 0) {
+                    temperature += (sample % 25) * 0.8;
+                }
+
+                int partition = Math.floorMod(deviceId.hashCode(), PARTITIONS);
+                List<ConsumerRecord<String, DeviceDataDto>> records = partitions.get(partition);
+                records.add(new ConsumerRecord<>(KafkaTopics.DEVICE_DATA_PROCESSED, partition, records.size(),
+                        deviceId, Fixtures.temperatureSample(deviceId, temperature)));
+            }
+        }
+
+        listenerThreads = Executors.newFixedThreadPool(listeners);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopListeners() {
+        listenerThreads.shutdownNow();
+    }
+
+    @Setup(Level.Invocation)
+    public void startEngine() {
+        engine = new AnalysisEngine();
+        Fixtures.inject(engine, "meterRegistry", new SimpleMeterRegistry());
+        Fixtures.inject(engine, "shardCount", shards);
+        Fixtures.inject(engine, "queueCapacity", 1000);
+        engine.initialize();
+
+        service = new AnomalyDetectionService();
+        Fixtures.inject(service, "kafkaTemplate", new DiscardingTemplate());
+        Fixtures.inject(service, "analysisEngine", engine);
+        Fixtures.inject(service, "trendWindows", "*=10:0.5");
+        service.initialize();
+    }
+
+    @Benchmark
+    public void analyzeConcurrently() throws Exception {
+        List<Future<?>> running = new ArrayList<>();
+        for (int i = 0; i < listeners; i++) {
+            int listener = i;
+            running.add(listenerThreads.submit(() -> {
+                feed(listeners, listener);
+                return null;
+            }));
+        }
+        for (Future<?> listener : running) {
+            listener.get();
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void stopEngine() {
+        engine.shutdown();
+    }
+
+    // One listener thread: polls its partitions in turn, as a consumer with several assigned partitions does
+    private void feed(int listenerCount, int listener) throws InterruptedException {
+        List<List<ConsumerRecord<String, DeviceDataDto>>> assigned = new ArrayList<>();
+        for (int p = listener; p < PARTITIONS; p += listenerCount) {
+            assigned.add(partitions.get(p));
+        }
+        int perPartition = Math.max(1, BATCH_SIZE / assigned.size());
+
+        for (int offset = 0; ; offset += perPartition) {
+            List<ConsumerRecord<String, DeviceDataDto>> batch = new ArrayList<>(BATCH_SIZE);
+            for (List<ConsumerRecord<String, DeviceDataDto>> partition : assigned) {
+                if (offset < partition.size()) {
+                    batch.addAll(partition.subList(offset, Math.min(partition.size(), offset + perPartition)));
+                }
+            }
+            if (batch.isEmpty()) return;
+            service.analyzeDeviceData(batch);
+        }
+    }
+
+    // Alerts are not part of the measurement
+    private static final class DiscardingTemplate extends KafkaTemplate<String, Object> {
+
+        DiscardingTemplate() {
+            super(() -> {
+                throw new UnsupportedOperationException("Alerts are discarded, not produced");
+            });
+        }
+
+        @Override
+        public CompletableFuture<SendResult<String, Object>> send(String topic, String key, Object data) {
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.iot.benchmarks;
+
+import com.iot.analysisreport.history.DeviceHistory;
+import com.iot.analysisreport.service.AnomalyDetectionService;
+import com.iot.common.dto.DeviceDataDto;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.invoke.MethodHandle;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-sample cost of the analysis service's history-based detectors for a device
+ * whose history is already full, so every call also evicts the oldest sample.
+ * Run across history sizes to check the cost stays flat as the window grows.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class AnomalyDetectionBenchmark {
+
+    private static final int SAMPLES = 1024;
+
+    private static final MethodHandle STORE_DATA_IN_HISTORY =
+            Fixtures.privateMethod(AnomalyDetectionService.class, "storeDataInHistory", DeviceHistory.class, Map.class, DeviceDataDto.class);
+    private static final MethodHandle DETECT_STATISTICAL_ANOMALIES =
+            Fixtures.privateMethod(AnomalyDetectionService.class, "detectStatisticalAnomalies", void.class, DeviceHistory.class, DeviceDataDto.class);
+    private static final MethodHandle DETECT_TREND_ANOMALIES =
+            Fixtures.privateMethod(AnomalyDetectionService.class, "detectTrendAnomalies", void.class, DeviceHistory.class, DeviceDataDto.class);
+
+    @Param({"100", "1000", "10000"})
+    private int historySize;
+    
+    private AnomalyDetectionService service;
+    // Stands in for the engine shard that owns the device
+    private final Map<String, DeviceHistory> histories = new HashMap<>();
+    private DeviceDataDto[] samples;
+    private int next;
+
+    @Setup
+    public void setup() throws Throwable {
+        service = new AnomalyDetectionService();
+        Fixtures.inject(service, "kafkaTemplate", Fixtures.discardingKafkaTemplate());
+        Fixtures.inject(service, "historySize", historySize);
+        Fixtures.inject(service, "trendWindows", "*=10:0.5");
+        service.initialize();
+
+        // Noise around 25 °C; the occasional alert is part of the realistic cost
+        Random random = new Random(42);
+        samples = new DeviceDataDto[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            samples[i] = Fixtures.temperatureSample("device-001", 25.0 + random.nextGaussian());
+        }
+        for (int i = 0; i < historySize; i++) {
+            DeviceHistory history = (DeviceHistory) STORE_DATA_IN_HISTORY.invokeExact(service, histories, nextSample());
+        }
+    }
+
+    @Benchmark
+    public void storeAndDetectStatistical() throws Throwable {
+        DeviceDataDto sample = nextSample();
+        DeviceHistory history = (DeviceHistory) STORE_DATA_IN_HISTORY.invokeExact(service, histories, sample);
+        DETECT_STATISTICAL_ANOMALIES.invokeExact(service, history, sample);
+    }
+
+    @Benchmark
+    public void storeAndDetectTrend() throws Throwable {
+        DeviceDataDto sample = nextSample();
+        DeviceHistory history = (DeviceHistory) STORE_DATA_IN_HISTORY.invokeExact(service, histories, sample);
+        DETECT_TREND_ANOMALIES.invokeExact(service, history, sample);
+    }
+
+    private DeviceDataDto nextSample() {
+        DeviceDataDto sample = samples[next];
+        next = (next + 1) & (SAMPLES - 1);
+        return sample;
+    }
+}
@@ -0,0 +1,104 @@
+package com.iot.benchmarks;
+
+import com.iot.common.dto.DeviceDataDto;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * Payloads shaped like the ones published by mock-iot-devices/device.py, plus the
+ * plumbing to run service methods outside a Spring context.
+ */
+final class Fixtures {
+
+    private Fixtures() {
+        // Utility class
+    }
+
+    static String mqttTemperaturePayload() {
+        return "{\"deviceId\":\"device-001\",\"timestamp\":\"2024-01-15T10:30:00.123456\","
+                + "\"factoryId\":\"factory-001\",\"location\":\"Production Line A\","
+                + "\"messageType\":\"sensor_data\",\"batteryLevel\":87.42,\"signalStrength\":-61,"
+                + "\"data\":{\"value\":25.37,\"unit\":\"\\u00b0C\",\"isAnomaly\":false,\"anomalyCount\":2,"
+                + "\"temperature\":25.371829,\"humidity\":48.112734}}";
+    }
+
+    // The same sample after the processor's streaming decoder, as it travels on Kafka
+    static DeviceDataDto temperatureSample(String deviceId, double temperature) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("value", Math.round(temperature * 100) / 100.0);
+        data.put("unit", "\u00b0C");
+        data.put("isAnomaly", false);
+        data.put("anomalyCount", 2);
+        data.put("temperature", temperature);
+        data.put("humidity", 48.112734);
+
+        DeviceDataDto deviceData = new DeviceDataDto(deviceId, LocalDateTime.of(2024, 1, 15, 10, 30, 0, 123456000), data);
+        deviceData.setFactoryId("factory-001");
+        deviceData.setLocation("Production Line A");
+        deviceData.setMessageType("sensor_data");
+        deviceData.setBatteryLevel(87.42);
+        deviceData.setSignalStrength(-61);
+        return deviceData;
+    }
+
+    // Sends go nowhere and complete immediately, so only the caller's cost is measured
+    static KafkaTemplate<String, Object> discardingKafkaTemplate() {
+        DiscardingProducer producer = new DiscardingProducer();
+        return new KafkaTemplate<>(() -> producer);
+    }
+
+    // Sets an @Autowired or @Value field the way Spring would
+    static void inject(Object target, String fieldName, Object value) {
+        try {
+            Field field = target.getClass().getDeclaredField(fieldName);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot set " + target.getClass().getSimpleName() + "." + fieldName, e);
+        }
+    }
+
+    // Private hot-path methods are benchmarked in place rather than widened for the benchmarks
+    static MethodHandle privateMethod(Class<?> owner, String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            return MethodHandles.privateLookupIn(owner, MethodHandles.lookup())
+                    .findVirtual(owner, name, MethodType.methodType(returnType, parameterTypes));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot access " + owner.getSimpleName() + "." + name, e);
+        }
+    }
+
+    private static class DiscardingProducer extends MockProducer<String, Object> {
+
+        DiscardingProducer() {
+            super(true, new StringSerializer(), (topic, value) -> new byte[0]);
+        }
+
+        @Override
+        public synchronized Future<RecordMetadata> send(ProducerRecord<String, Object> record, Callback callback) {
+            Future<RecordMetadata> result = super.send(record, callback);
+            // MockProducer keeps every record it sends
+            clear();
+            return result;
+        }
+
+        // KafkaTemplate closes non-transactional producers after each send
+        @Override
+        public void close(Duration timeout) {
+        }
+    }
+}
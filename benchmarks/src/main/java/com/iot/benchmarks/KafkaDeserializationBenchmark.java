@@ -0,0 +1,71 @@
+package com.iot.benchmarks;
+
+import com.iot.common.config.KafkaTopics;
+import com.iot.common.dto.DeviceDataDto;
+import com.iot.common.kafka.CompactDeserializer;
+import com.iot.common.kafka.CompactSerializer;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.kafka.support.serializer.JsonDeserializer;
+import org.springframework.kafka.support.serializer.JsonSerializer;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deserializing one device.data.processed record as the consumers do: Spring's
+ * JsonDeserializer on a JSON record with type headers, and CompactDeserializer on both
+ * a binary record and a legacy JSON one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class KafkaDeserializationBenchmark {
+
+    private static final String TOPIC = KafkaTopics.DEVICE_DATA_PROCESSED;
+
+    private JsonDeserializer<Object> jsonDeserializer;
+    private CompactDeserializer compactDeserializer;
+    private RecordHeaders jsonHeaders;
+    private byte[] jsonRecord;
+    private byte[] binaryRecord;
+
+    @Setup
+    public void setup() {
+        // Type headers are read on every call, so they must survive the first one
+        Map<String, Object> consumerConfig = Map.of(
+                JsonDeserializer.TRUSTED_PACKAGES, "*",
+                JsonDeserializer.REMOVE_TYPE_INFO_HEADERS, false);
+        jsonDeserializer = new JsonDeserializer<>();
+        jsonDeserializer.configure(consumerConfig, false);
+        compactDeserializer = new CompactDeserializer();
+        compactDeserializer.configure(consumerConfig, false);
+
+        DeviceDataDto sample = Fixtures.temperatureSample("device-001", 25.371829);
+        try (JsonSerializer<Object> jsonSerializer = new JsonSerializer<>();
+             CompactSerializer compactSerializer = new CompactSerializer()) {
+            jsonHeaders = new RecordHeaders();
+            jsonRecord = jsonSerializer.serialize(TOPIC, jsonHeaders, sample);
+            compactSerializer.configure(Map.of(CompactSerializer.BINARY_TOPICS_CONFIG, TOPIC), false);
+            binaryRecord = compactSerializer.serialize(TOPIC, sample);
+        }
+    }
+
+    @Benchmark
+    public Object springJson() {
+        return jsonDeserializer.deserialize(TOPIC, jsonHeaders, jsonRecord);
+    }
+
+    @Benchmark
+    public Object compactBinary() {
+        return compactDeserializer.deserialize(TOPIC, binaryRecord);
+    }
+
+    @Benchmark
+    public Object compactLegacyJson() {
+        return compactDeserializer.deserialize(TOPIC, jsonHeaders, jsonRecord);
+    }
+}
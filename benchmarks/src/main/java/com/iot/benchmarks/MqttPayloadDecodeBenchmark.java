@@ -0,0 +1,67 @@
+package com.iot.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.iot.common.dto.DeviceDataDto;
+import com.iot.deviceprocessor.codec.DeviceSample;
+import com.iot.deviceprocessor.codec.DeviceSampleDecoder;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the original MQTT data path (String payload, topic split, Jackson Map)
+ * with the streaming byte decoder. Run with {@code -prof gc} and compare
+ * gc.alloc.rate.norm (bytes per message) alongside ns/op.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MqttPayloadDecodeBenchmark {
+
+    private static final String TOPIC = "devices/device-001/data";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private DeviceSampleDecoder decoder;
+    private DeviceSample sample;
+    private byte[] payload;
+
+    @Setup
+    public void setup() {
+        decoder = new DeviceSampleDecoder(objectMapper.getFactory());
+        sample = new DeviceSample();
+        payload = Fixtures.mqttTemperaturePayload().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public void legacyStringAndMap(Blackhole blackhole) throws Exception {
+        String text = new String(payload);
+        String[] topicParts = TOPIC.split("/");
+        Map<String, Object> dataMap = objectMapper.readValue(text, Map.class);
+        blackhole.consume(topicParts[1]);
+        blackhole.consume(dataMap);
+    }
+
+    @Benchmark
+    public void streamingDecode(Blackhole blackhole) throws Exception {
+        String deviceId = DeviceSampleDecoder.deviceIdFromTopic(TOPIC);
+        decoder.decode(payload, sample);
+        blackhole.consume(deviceId);
+        blackhole.consume(sample.getMetricValue(0));
+    }
+
+    // Includes building the Kafka DTO, which is where the remaining boxing happens
+    @Benchmark
+    public DeviceDataDto streamingDecodeToDto() throws Exception {
+        String deviceId = DeviceSampleDecoder.deviceIdFromTopic(TOPIC);
+        decoder.decode(payload, sample);
+        return sample.toDto(deviceId, LocalDateTime.MIN);
+    }
+}
@@ -0,0 +1,76 @@
+package com.iot.benchmarks;
+
+import com.influxdb.client.write.Point;
+import com.iot.common.dto.DeviceDataDto;
+import com.iot.deviceprocessor.monitoring.IngestMetrics;
+import com.iot.deviceprocessor.service.DeviceDataService;
+import com.iot.deviceprocessor.service.ThresholdRuleEngine;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-sample work in DeviceDataService once a record comes off device.data.raw:
+ * the anomaly check (with and without publishing an anomaly event) and building the
+ * InfluxDB Point. Kafka sends go to a discarding producer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ProcessingPathBenchmark {
+
+    private static final MethodHandle CHECK_FOR_ANOMALIES =
+            Fixtures.privateMethod(DeviceDataService.class, "checkForAnomalies", boolean.class, DeviceDataDto.class);
+    private static final MethodHandle CREATE_POINT =
+            Fixtures.privateMethod(DeviceDataService.class, "createPoint", Point.class, DeviceDataDto.class);
+
+    private DeviceDataService service;
+    private DeviceDataDto normalSample;
+    private DeviceDataDto lowBatterySample;
+
+    @Setup
+    public void setup() {
+        IngestMetrics ingestMetrics = new IngestMetrics();
+        Fixtures.inject(ingestMetrics, "meterRegistry", new SimpleMeterRegistry());
+        Fixtures.inject(ingestMetrics, "logSampleRate", 0L);
+        ingestMetrics.initialize();
+
+        service = new DeviceDataService();
+        Fixtures.inject(service, "kafkaTemplate", Fixtures.discardingKafkaTemplate());
+        // No device has custom rules, so every sample is checked against the defaults
+        Fixtures.inject(service, "thresholdRuleEngine", new ThresholdRuleEngine());
+        Fixtures.inject(service, "ingestMetrics", ingestMetrics);
+
+        normalSample = Fixtures.temperatureSample("device-001", 25.371829);
+        lowBatterySample = Fixtures.temperatureSample("device-001", 25.371829);
+        lowBatterySample.setBatteryLevel(12.5);
+    }
+
+    @Benchmark
+    public boolean checkForAnomaliesWithinLimits() throws Throwable {
+        return (boolean) CHECK_FOR_ANOMALIES.invokeExact(service, normalSample);
+    }
+
+    // Includes building and sending the anomaly event
+    @Benchmark
+    public boolean checkForAnomaliesLowBattery() throws Throwable {
+        return (boolean) CHECK_FOR_ANOMALIES.invokeExact(service, lowBatterySample);
+    }
+
+    @Benchmark
+    public Point createPoint() throws Throwable {
+        return (Point) CREATE_POINT.invokeExact(service, normalSample);
+    }
+
+    // What the InfluxDB client does with each Point when it flushes a batch
+    @Benchmark
+    public String createPointToLineProtocol() throws Throwable {
+        Point point = (Point) CREATE_POINT.invokeExact(service, normalSample);
+        return point.toLineProtocol();
+    }
+}
@@ -0,0 +1,60 @@
+package com.iot.benchmarks;
+
+import com.iot.deviceprocessor.rules.ThresholdRules;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of checking one sample against compiled per-device thresholds, and of
+ * recompiling the rules when a device's configuration changes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ThresholdRuleBenchmark {
+
+    private Map<String, String> configuration;
+    private ThresholdRules rules;
+    private Map<String, Object> normalSample;
+    private Map<String, Object> anomalousSample;
+
+    @Setup
+    public void setup() {
+        configuration = new HashMap<>();
+        configuration.put("threshold_metric", "temperature");
+        configuration.put("threshold_high", "75.0");
+        configuration.put("threshold_low", "-5.0");
+        configuration.put("threshold_high.humidity", "85.0");
+        rules = ThresholdRules.fromConfiguration(configuration);
+
+        normalSample = new HashMap<>();
+        normalSample.put("value", 25.37);
+        normalSample.put("unit", "°C");
+        normalSample.put("temperature", 25.371829);
+        normalSample.put("humidity", 48.112734);
+
+        anomalousSample = new HashMap<>(normalSample);
+        anomalousSample.put("temperature", 91.2);
+    }
+
+    @Benchmark
+    public String evaluateWithinLimits() {
+        return rules.evaluate(normalSample);
+    }
+
+    @Benchmark
+    public String evaluateAnomaly() {
+        return rules.evaluate(anomalousSample);
+    }
+
+    @Benchmark
+    public ThresholdRules compileFromConfiguration() {
+        return ThresholdRules.fromConfiguration(configuration);
+    }
+}
@@ -10,6 +10,7 @@ public class KafkaTopics {
     public static final String DEVICE_DATA_RAW = "device.data.raw";
     public static final String DEVICE_DATA_PROCESSED = "device.data.processed";
     public static final String DEVICE_HEALTH_CHECK = "device.health.check";
+    public static final String DEVICE_DATA_ROLLUPS = "device.data.rollups";
     
     // Control Command Topics
     public static final String DEVICE_CONTROL_COMMANDS = "device.control.commands";
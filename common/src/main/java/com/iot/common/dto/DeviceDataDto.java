@@ -24,6 +24,8 @@ public class DeviceDataDto {
     private String messageType;
     private Double batteryLevel;
     private Integer signalStrength;
+    // Per-device message counter, when the sender sets one; not a metric
+    private Long sequence;
 
     // Constructors
     public DeviceDataDto() {}
@@ -98,4 +100,12 @@ public class DeviceDataDto {
     public void setSignalStrength(Integer signalStrength) {
         this.signalStrength = signalStrength;
     }
+
+    public Long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(Long sequence) {
+        this.sequence = sequence;
+    }
 }
@@ -0,0 +1,447 @@
+package com.iot.common.kafka;
+
+import com.iot.common.dto.AlertDto;
+import com.iot.common.dto.DeviceDataDto;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding for the high-volume Kafka payloads.
+ *
+ * Layout: MAGIC, schema VERSION, record type, then the record body. Field and map
+ * key names from {@link #NAME_DICTIONARY} are written as one byte; other names are
+ * written inline. MAGIC is 0x00, which can never start a JSON document, so readers
+ * can tell binary records from legacy JSON ones. Optional fields added later are
+ * appended after the body only when set, so older readers ignore them and newer
+ * readers treat a body without them as unset.
+ */
+public final class CompactBinaryCodec {
+
+    public static final byte MAGIC = 0x00;
+    public static final byte VERSION = 1;
+
+    static final byte TYPE_DEVICE_DATA = 1;
+    static final byte TYPE_ALERT = 2;
+    static final byte TYPE_MAP = 3;
+
+    private static final byte VALUE_NULL = 0;
+    private static final byte VALUE_DOUBLE = 1;
+    private static final byte VALUE_LONG = 2;
+    private static final byte VALUE_STRING = 3;
+    private static final byte VALUE_TRUE = 4;
+    private static final byte VALUE_FALSE = 5;
+    private static final byte VALUE_MAP = 6;
+    private static final byte VALUE_LIST = 7;
+    private static final byte VALUE_TIMESTAMP = 8;
+
+    private static final int INLINE_NAME = 0;
+
+    // Append only: the position of a name is its wire code for every reader of this VERSION
+    private static final String[] NAME_DICTIONARY = {
+        "deviceId", "timestamp", "factoryId", "location", "messageType", "anomalyType", "details", "data",
+        "temperature", "pressure", "vibration", "humidity", "value", "unit", "isAnomaly", "anomalyCount",
+        "flow_rate", "frequency", "position", "batteryLevel", "signalStrength",
+        "parameter", "currentValue", "mean", "stdDev", "trend", "status", "response", "commandId"
+    };
+
+    private static final Map<String, Integer> NAME_CODES = new HashMap<>();
+
+    static {
+        for (int i = 0; i < NAME_DICTIONARY.length; i++) {
+            NAME_CODES.put(NAME_DICTIONARY[i], i + 1);
+        }
+    }
+
+    private CompactBinaryCodec() {
+        // Utility class
+    }
+
+    public static boolean isBinary(byte[] data) {
+        return data != null && data.length > 2 && data[0] == MAGIC;
+    }
+
+    public static boolean supports(Object value) {
+        return value instanceof DeviceDataDto || value instanceof AlertDto || value instanceof Map;
+    }
+
+    // Throws IllegalArgumentException for values it cannot represent
+    public static byte[] encode(Object value) {
+        Writer writer = new Writer(128);
+        writer.writeByte(MAGIC);
+        writer.writeByte(VERSION);
+
+        if (value instanceof DeviceDataDto deviceData) {
+            writer.writeByte(TYPE_DEVICE_DATA);
+            writeDeviceData(writer, deviceData);
+        } else if (value instanceof AlertDto alert) {
+            writer.writeByte(TYPE_ALERT);
+            writeAlert(writer, alert);
+        } else if (value instanceof Map<?, ?> map) {
+            writer.writeByte(TYPE_MAP);
+            writeMap(writer, map);
+        } else {
+            throw new IllegalArgumentException("Unsupported type for binary encoding: " + value.getClass().getName());
+        }
+        return writer.toByteArray();
+    }
+
+    public static Object decode(byte[] data) {
+        Reader reader = new Reader(data);
+        if (reader.readByte() != MAGIC) {
+            throw new IllegalArgumentException("Not a binary record");
+        }
+        byte version = reader.readByte();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported binary schema version: " + version);
+        }
+
+        byte type = reader.readByte();
+        switch (type) {
+            case TYPE_DEVICE_DATA:
+                return readDeviceData(reader);
+            case TYPE_ALERT:
+                return readAlert(reader);
+            case TYPE_MAP:
+                return readMap(reader);
+            default:
+                throw new IllegalArgumentException("Unknown binary record type: " + type);
+        }
+    }
+
+    private static void writeDeviceData(Writer writer, DeviceDataDto deviceData) {
+        writer.writeString(deviceData.getDeviceId());
+        writer.writeTimestamp(deviceData.getTimestamp());
+        writer.writeString(deviceData.getFactoryId());
+        writer.writeString(deviceData.getLocation());
+        writer.writeString(deviceData.getMessageType());
+        writer.writeNullableDouble(deviceData.getBatteryLevel());
+        writer.writeNullableInt(deviceData.getSignalStrength());
+        writeValue(writer, deviceData.getData());
+        if (deviceData.getSequence() != null) {
+            writer.writeVarLong(deviceData.getSequence());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static DeviceDataDto readDeviceData(Reader reader) {
+        DeviceDataDto deviceData = new DeviceDataDto();
+        deviceData.setDeviceId(reader.readString());
+        deviceData.setTimestamp(reader.readTimestamp());
+        deviceData.setFactoryId(reader.readString());
+        deviceData.setLocation(reader.readString());
+        deviceData.setMessageType(reader.readString());
+        deviceData.setBatteryLevel(reader.readNullableDouble());
+        deviceData.setSignalStrength(reader.readNullableInt());
+        deviceData.setData((Map<String, Object>) readValue(reader));
+        if (reader.hasRemaining()) {
+            deviceData.setSequence(reader.readVarLong());
+        }
+        return deviceData;
+    }
+
+    private static void writeAlert(Writer writer, AlertDto alert) {
+        writer.writeString(alert.getAlertId());
+        writer.writeString(alert.getDeviceId());
+        // Enum ordinals + 1, 0 for null; constants must only ever be appended
+        writer.writeByte(alert.getAlertType() == null ? 0 : alert.getAlertType().ordinal() + 1);
+        writer.writeByte(alert.getSeverity() == null ? 0 : alert.getSeverity().ordinal() + 1);
+        writer.writeString(alert.getMessage());
+        writer.writeTimestamp(alert.getTimestamp());
+        writer.writeString(alert.getFactoryId());
+        writer.writeString(alert.getLocation());
+        writeValue(writer, alert.getData());
+        writer.writeByte(alert.isAcknowledged() ? 1 : 0);
+        writer.writeString(alert.getAcknowledgedBy());
+        writer.writeTimestamp(alert.getAcknowledgedAt());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static AlertDto readAlert(Reader reader) {
+        AlertDto alert = new AlertDto();
+        alert.setAlertId(reader.readString());
+        alert.setDeviceId(reader.readString());
+        int alertType = reader.readByte();
+        alert.setAlertType(alertType == 0 ? null : AlertDto.AlertType.values()[alertType - 1]);
+        int severity = reader.readByte();
+        alert.setSeverity(severity == 0 ? null : AlertDto.Severity.values()[severity - 1]);
+        alert.setMessage(reader.readString());
+        alert.setTimestamp(reader.readTimestamp());
+        alert.setFactoryId(reader.readString());
+        alert.setLocation(reader.readString());
+        alert.setData((Map<String, Object>) readValue(reader));
+        alert.setAcknowledged(reader.readByte() != 0);
+        alert.setAcknowledgedBy(reader.readString());
+        alert.setAcknowledgedAt(reader.readTimestamp());
+        return alert;
+    }
+
+    private static void writeMap(Writer writer, Map<?, ?> map) {
+        writer.writeVarInt(map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            writeName(writer, String.valueOf(entry.getKey()));
+            writeValue(writer, entry.getValue());
+        }
+    }
+
+    private static Map<String, Object> readMap(Reader reader) {
+        int size = reader.readVarInt();
+        Map<String, Object> map = new LinkedHashMap<>(Math.max(4, size * 2));
+        for (int i = 0; i < size; i++) {
+            String name = readName(reader);
+            map.put(name, readValue(reader));
+        }
+        return map;
+    }
+
+    private static void writeName(Writer writer, String name) {
+        Integer code = NAME_CODES.get(name);
+        if (code != null) {
+            writer.writeByte(code);
+        } else {
+            writer.writeByte(INLINE_NAME);
+            writer.writeString(name);
+        }
+    }
+
+    private static String readName(Reader reader) {
+        int code = reader.readByte() & 0xFF;
+        if (code == INLINE_NAME) {
+            return reader.readString();
+        }
+        if (code > NAME_DICTIONARY.length) {
+            throw new IllegalArgumentException("Unknown name code: " + code);
+        }
+        return NAME_DICTIONARY[code - 1];
+    }
+
+    private static void writeValue(Writer writer, Object value) {
+        if (value == null) {
+            writer.writeByte(VALUE_NULL);
+        } else if (value instanceof Double || value instanceof Float) {
+            writer.writeByte(VALUE_DOUBLE);
+            writer.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            writer.writeByte(VALUE_LONG);
+            writer.writeVarLong(((Number) value).longValue());
+        } else if (value instanceof String string) {
+            writer.writeByte(VALUE_STRING);
+            writer.writeString(string);
+        } else if (value instanceof Boolean bool) {
+            writer.writeByte(bool ? VALUE_TRUE : VALUE_FALSE);
+        } else if (value instanceof Map<?, ?> map) {
+            writer.writeByte(VALUE_MAP);
+            writeMap(writer, map);
+        } else if (value instanceof List<?> list) {
+            writer.writeByte(VALUE_LIST);
+            writer.writeVarInt(list.size());
+            for (Object element : list) {
+                writeValue(writer, element);
+            }
+        } else if (value instanceof LocalDateTime timestamp) {
+            writer.writeByte(VALUE_TIMESTAMP);
+            writer.writeTimestamp(timestamp);
+        } else {
+            throw new IllegalArgumentException("Unsupported value type for binary encoding: " + value.getClass().getName());
+        }
+    }
+
+    private static Object readValue(Reader reader) {
+        byte tag = reader.readByte();
+        switch (tag) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_DOUBLE:
+                return reader.readDouble();
+            case VALUE_LONG:
+                long number = reader.readVarLong();
+                // Match what the JSON path produces for small integers
+                return number == (int) number ? (Object) (int) number : (Object) number;
+            case VALUE_STRING:
+                return reader.readString();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_MAP:
+                return readMap(reader);
+            case VALUE_LIST:
+                int size = reader.readVarInt();
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(reader));
+                }
+                return list;
+            case VALUE_TIMESTAMP:
+                return reader.readTimestamp();
+            default:
+                throw new IllegalArgumentException("Unknown value tag: " + tag);
+        }
+    }
+
+    private static final class Writer {
+        private byte[] buffer;
+        private int position;
+
+        Writer(int initialCapacity) {
+            buffer = new byte[initialCapacity];
+        }
+
+        void writeByte(int value) {
+            ensureCapacity(1);
+            buffer[position++] = (byte) value;
+        }
+
+        void writeVarInt(int value) {
+            writeVarLong(value);
+        }
+
+        // Zig-zag for signed values, then 7 bits per byte
+        void writeVarLong(long value) {
+            long zigZag = (value << 1) ^ (value >> 63);
+            ensureCapacity(10);
+            while ((zigZag & ~0x7FL) != 0) {
+                buffer[position++] = (byte) ((zigZag & 0x7F) | 0x80);
+                zigZag >>>= 7;
+            }
+            buffer[position++] = (byte) zigZag;
+        }
+
+        void writeDouble(double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            ensureCapacity(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buffer[position++] = (byte) (bits >>> shift);
+            }
+        }
+
+        // Length + 1 so that 0 can mean null
+        void writeString(String value) {
+            if (value == null) {
+                writeVarInt(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length + 1);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+
+        void writeNullableDouble(Double value) {
+            writeByte(value == null ? 0 : 1);
+            if (value != null) {
+                writeDouble(value);
+            }
+        }
+
+        void writeNullableInt(Integer value) {
+            writeByte(value == null ? 0 : 1);
+            if (value != null) {
+                writeVarLong(value);
+            }
+        }
+
+        void writeTimestamp(LocalDateTime timestamp) {
+            writeByte(timestamp == null ? 0 : 1);
+            if (timestamp != null) {
+                writeVarLong(timestamp.toEpochSecond(ZoneOffset.UTC));
+                writeVarInt(timestamp.getNano());
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, position);
+        }
+
+        private void ensureCapacity(int extra) {
+            if (position + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + extra));
+            }
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] buffer;
+        private int position;
+
+        Reader(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        boolean hasRemaining() {
+            return position < buffer.length;
+        }
+
+        byte readByte() {
+            if (position >= buffer.length) {
+                throw new IllegalArgumentException("Truncated binary record");
+            }
+            return buffer[position++];
+        }
+
+        int readVarInt() {
+            return (int) readVarLong();
+        }
+
+        long readVarLong() {
+            long zigZag = 0;
+            int shift = 0;
+            byte current;
+            do {
+                if (shift > 63) {
+                    throw new IllegalArgumentException("Malformed varint");
+                }
+                current = readByte();
+                zigZag |= (long) (current & 0x7F) << shift;
+                shift += 7;
+            } while ((current & 0x80) != 0);
+            return (zigZag >>> 1) ^ -(zigZag & 1);
+        }
+
+        double readDouble() {
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits = (bits << 8) | (readByte() & 0xFF);
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        String readString() {
+            int length = readVarInt() - 1;
+            if (length < 0) {
+                return null;
+            }
+            if (position + length > buffer.length) {
+                throw new IllegalArgumentException("Truncated binary record");
+            }
+            String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        Double readNullableDouble() {
+            return readByte() == 0 ? null : readDouble();
+        }
+
+        Integer readNullableInt() {
+            return readByte() == 0 ? null : (int) readVarLong();
+        }
+
+        LocalDateTime readTimestamp() {
+            if (readByte() == 0) {
+                return null;
+            }
+            long epochSecond = readVarLong();
+            int nano = readVarInt();
+            return LocalDateTime.ofEpochSecond(epochSecond, nano, ZoneOffset.UTC);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.iot.common.kafka;
+
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.springframework.kafka.support.serializer.JsonDeserializer;
+
+import java.util.Map;
+
+/**
+ * Value deserializer that reads both {@link CompactBinaryCodec} records and legacy
+ * Spring JSON records; JSON settings such as trusted packages are passed through.
+ */
+public class CompactDeserializer implements Deserializer<Object> {
+    
+    private final JsonDeserializer<Object> jsonDeserializer = new JsonDeserializer<>();
+    
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+        jsonDeserializer.configure(configs, isKey);
+    }
+    
+    @Override
+    public Object deserialize(String topic, byte[] data) {
+        return deserialize(topic, null, data);
+    }
+    
+    @Override
+    public Object deserialize(String topic, Headers headers, byte[] data) {
+        if (CompactBinaryCodec.isBinary(data)) {
+            try {
+                return CompactBinaryCodec.decode(data);
+            } catch (IllegalArgumentException e) {
+                throw new SerializationException("Error deserializing binary record from topic " + topic, e);
+            }
+        }
+        return headers != null ? jsonDeserializer.deserialize(topic, headers, data) : jsonDeserializer.deserialize(topic, data);
+    }
+    
+    @Override
+    public void close() {
+        jsonDeserializer.close();
+    }
+}
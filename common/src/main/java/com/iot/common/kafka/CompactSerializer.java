@@ -0,0 +1,58 @@
+package com.iot.common.kafka;
+
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Serializer;
+import org.springframework.kafka.support.serializer.JsonSerializer;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Value serializer that writes {@link CompactBinaryCodec} records for the topics listed
+ * in {@value #BINARY_TOPICS_CONFIG} and Spring JSON for everything else, so binary
+ * encoding can be switched on topic by topic.
+ */
+public class CompactSerializer implements Serializer<Object> {
+    
+    public static final String BINARY_TOPICS_CONFIG = "iot.serde.binary-topics";
+    
+    private final JsonSerializer<Object> jsonSerializer = new JsonSerializer<>();
+    private Set<String> binaryTopics = Set.of();
+    
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+        jsonSerializer.configure(configs, isKey);
+        
+        Object topics = configs.get(BINARY_TOPICS_CONFIG);
+        if (topics != null) {
+            binaryTopics = Arrays.stream(topics.toString().split(","))
+                    .map(String::trim)
+                    .filter(topic -> !topic.isEmpty())
+                    .collect(Collectors.toUnmodifiableSet());
+        }
+    }
+    
+    @Override
+    public byte[] serialize(String topic, Object data) {
+        return serialize(topic, null, data);
+    }
+    
+    @Override
+    public byte[] serialize(String topic, Headers headers, Object data) {
+        if (data != null && binaryTopics.contains(topic) && CompactBinaryCodec.supports(data)) {
+            try {
+                return CompactBinaryCodec.encode(data);
+            } catch (IllegalArgumentException e) {
+                // Values the codec cannot represent still go out as JSON
+            }
+        }
+        return headers != null ? jsonSerializer.serialize(topic, headers, data) : jsonSerializer.serialize(topic, data);
+    }
+    
+    @Override
+    public void close() {
+        jsonSerializer.close();
+    }
+}
@@ -0,0 +1,31 @@
+package com.iot.devicemanagement.config;
+
+import org.springframework.boot.autoconfigure.kafka.ConcurrentKafkaListenerContainerFactoryConfigurer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.support.serializer.JsonDeserializer;
+
+import java.util.LinkedHashMap;
+import java.util.Properties;
+
+@Configuration
+public class KafkaConsumerConfig {
+    
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<Object, Object> heartbeatKafkaListenerContainerFactory(
+            ConcurrentKafkaListenerContainerFactoryConfigurer configurer,
+            ConsumerFactory<Object, Object> kafkaConsumerFactory) {
+        ConcurrentKafkaListenerContainerFactory<Object, Object> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        configurer.configure(factory, kafkaConsumerFactory);
+        
+        // device.status.changes carries events from several services; read them all as maps
+        Properties json = new Properties();
+        json.setProperty(JsonDeserializer.USE_TYPE_INFO_HEADERS, "false");
+        json.setProperty(JsonDeserializer.VALUE_DEFAULT_TYPE, LinkedHashMap.class.getName());
+        factory.getContainerProperties().setKafkaConsumerProperties(json);
+        
+        return factory;
+    }
+}
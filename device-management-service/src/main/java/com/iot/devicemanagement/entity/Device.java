@@ -6,6 +6,7 @@ import org.hibernate.annotations.CreationTimestamp;
 import org.hibernate.annotations.UpdateTimestamp;
 
 import java.time.LocalDateTime;
+import java.util.HashMap;
 import java.util.Map;
 
 @Entity
@@ -161,6 +162,9 @@ public class Device {
         dto.setStatus(this.status);
         dto.setFactoryId(this.factoryId);
         dto.setLocation(this.location);
+        if (this.configuration != null) {
+            dto.setConfiguration(new HashMap<>(this.configuration));
+        }
         dto.setLastSeen(this.lastSeen);
         dto.setCreatedAt(this.createdAt);
         dto.setUpdatedAt(this.updatedAt);
@@ -176,5 +180,15 @@ public class Device {
         if (dto.getFactoryId() != null) this.factoryId = dto.getFactoryId();
         if (dto.getLocation() != null) this.location = dto.getLocation();
         if (dto.getLastSeen() != null) this.lastSeen = dto.getLastSeen();
+        if (dto.getConfiguration() != null) this.configuration = toConfiguration(dto.getConfiguration());
+    }
+
+    // device_configurations stores plain strings, e.g. {"threshold_high": "75.0"}
+    public static Map<String, String> toConfiguration(Map<String, Object> values) {
+        Map<String, String> configuration = new HashMap<>();
+        values.forEach((key, value) -> {
+            if (value != null) configuration.put(key, value.toString());
+        });
+        return configuration;
     }
 }
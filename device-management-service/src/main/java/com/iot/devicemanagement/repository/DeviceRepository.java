@@ -3,6 +3,7 @@ package com.iot.devicemanagement.repository;
 import com.iot.common.dto.DeviceDto;
 import com.iot.devicemanagement.entity.Device;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -33,4 +34,9 @@ public interface DeviceRepository extends JpaRepository<Device, String> {
     
     @Query("SELECT COUNT(d) FROM Device d WHERE d.status = :status")
     long countByStatus(@Param("status") DeviceDto.DeviceStatus status);
+    
+    // Returns the number of devices updated, 0 for an unknown id
+    @Modifying
+    @Query("UPDATE Device d SET d.lastSeen = :seenAt WHERE d.id = :id")
+    int updateLastSeen(@Param("id") String id, @Param("seenAt") java.time.LocalDateTime seenAt);
 }
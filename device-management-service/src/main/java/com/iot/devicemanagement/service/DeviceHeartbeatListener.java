@@ -0,0 +1,31 @@
+package com.iot.devicemanagement.service;
+
+import com.iot.common.config.KafkaTopics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * Marks devices as seen when their status heartbeats (devices/+/status, forwarded by
+ * the device processor) arrive. Status-change events published by this service share
+ * the topic and are ignored.
+ */
+@Service
+public class DeviceHeartbeatListener {
+    
+    @Autowired
+    private LastSeenTracker lastSeenTracker;
+    
+    @KafkaListener(topics = KafkaTopics.DEVICE_STATUS_CHANGES, groupId = "device-management-heartbeats",
+            containerFactory = "heartbeatKafkaListenerContainerFactory")
+    public void onStatusMessage(Map<String, Object> message) {
+        // Heartbeats carry the device's status report as a nested object
+        Object deviceId = message.get("deviceId");
+        if (deviceId != null && message.get("status") instanceof Map) {
+            lastSeenTracker.record(deviceId.toString(), LocalDateTime.now());
+        }
+    }
+}
@@ -33,6 +33,9 @@ public class DeviceService {
         device.setStatus(deviceDto.getStatus());
         device.setFactoryId(deviceDto.getFactoryId());
         device.setLocation(deviceDto.getLocation());
+        if (deviceDto.getConfiguration() != null) {
+            device.setConfiguration(Device.toConfiguration(deviceDto.getConfiguration()));
+        }
         device.setLastSeen(LocalDateTime.now());
         
         Device savedDevice = deviceRepository.save(device);
@@ -99,12 +102,11 @@ public class DeviceService {
         }
     }
     
+    // One UPDATE without loading the entity; heartbeats from Kafka are coalesced by LastSeenTracker instead
     public void updateLastSeen(String id) {
-        Device device = deviceRepository.findById(id)
-                .orElseThrow(() -> new RuntimeException("Device not found with id: " + id));
-        
-        device.setLastSeen(LocalDateTime.now());
-        deviceRepository.save(device);
+        if (deviceRepository.updateLastSeen(id, LocalDateTime.now()) == 0) {
+            throw new RuntimeException("Device not found with id: " + id);
+        }
     }
     
     public void deleteDevice(String id) {
@@ -0,0 +1,134 @@
+package com.iot.devicemanagement.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces last-seen updates in memory and writes them every flush-interval-ms as one
+ * UPDATE ... FROM (VALUES ...) per batch, so a heartbeat costs a map write instead of a
+ * row update. Entries leave memory only once written, so a failed flush is retried on
+ * the next interval and a crash loses at most one interval of heartbeats. Writes use
+ * GREATEST, so retries never move last_seen backwards.
+ */
+@Service
+public class LastSeenTracker {
+
+    private static final String UPDATE_PREFIX =
+            "UPDATE devices AS d SET last_seen = GREATEST(d.last_seen, v.last_seen) FROM (VALUES ";
+    private static final String UPDATE_ROW = "(CAST(? AS VARCHAR), CAST(? AS TIMESTAMP))";
+    private static final String UPDATE_SUFFIX = ") AS v(id, last_seen) WHERE d.id = v.id";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Two bind parameters per row; PostgreSQL allows 32767 per statement
+    @Value("${device-management.last-seen.batch-size:5000}")
+    private int batchSize;
+
+    private final Map<String, LocalDateTime> pending = new ConcurrentHashMap<>();
+
+    private Timer flushTimer;
+    private DistributionSummary flushSize;
+    private Counter flushFailures;
+
+    @PostConstruct
+    public void initialize() {
+        flushTimer = Timer.builder("device.last_seen.flush")
+                .description("Time to write one coalesced batch of last-seen updates")
+                .register(meterRegistry);
+        flushSize = DistributionSummary.builder("device.last_seen.flush.size")
+                .description("Devices updated per flush")
+                .register(meterRegistry);
+        flushFailures = Counter.builder("device.last_seen.flush.failures")
+                .description("Flushes that failed and were retried on the next interval")
+                .register(meterRegistry);
+        Gauge.builder("device.last_seen.pending", this, LastSeenTracker::getPendingCount)
+                .description("Devices with a last-seen update not yet written")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    public void record(String deviceId, LocalDateTime seenAt) {
+        pending.merge(deviceId, seenAt, (current, update) -> update.isAfter(current) ? update : current);
+    }
+
+    @Scheduled(fixedDelayString = "${device-management.last-seen.flush-interval-ms:5000}")
+    public synchronized void flush() {
+        if (pending.isEmpty()) return;
+
+        // Heartbeats keep landing while the snapshot is written
+        List<Map.Entry<String, LocalDateTime>> entries = new ArrayList<>(pending.size());
+        for (Map.Entry<String, LocalDateTime> entry : pending.entrySet()) {
+            entries.add(Map.entry(entry.getKey(), entry.getValue()));
+        }
+
+        for (int from = 0; from < entries.size(); from += batchSize) {
+            List<Map.Entry<String, LocalDateTime>> chunk = entries.subList(from, Math.min(entries.size(), from + batchSize));
+            long start = System.nanoTime();
+            try {
+                jdbcTemplate.update(updateSql(chunk.size()), parameters(chunk));
+            } catch (Exception e) {
+                // Unwritten entries stay pending for the next interval
+                flushFailures.increment();
+                System.err.println("Error flushing last-seen updates: " + e.getMessage());
+                return;
+            }
+            flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            flushSize.record(chunk.size());
+
+            // Keep entries that received a newer heartbeat during the write
+            for (Map.Entry<String, LocalDateTime> entry : chunk) {
+                pending.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    private static String updateSql(int rows) {
+        StringBuilder sql = new StringBuilder(UPDATE_PREFIX.length() + rows * (UPDATE_ROW.length() + 1) + UPDATE_SUFFIX.length());
+        sql.append(UPDATE_PREFIX);
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) sql.append(',');
+            sql.append(UPDATE_ROW);
+        }
+        return sql.append(UPDATE_SUFFIX).toString();
+    }
+
+    private static Object[] parameters(List<Map.Entry<String, LocalDateTime>> chunk) {
+        Object[] parameters = new Object[chunk.size() * 2];
+        int i = 0;
+        for (Map.Entry<String, LocalDateTime> entry : chunk) {
+            parameters[i++] = entry.getKey();
+            parameters[i++] = Timestamp.valueOf(entry.getValue());
+        }
+        return parameters;
+    }
+}
@@ -0,0 +1,237 @@
+package com.iot.deviceprocessor.codec;
+
+import com.iot.common.dto.DeviceDataDto;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Mutable, reusable holder for one decoded telemetry message: envelope fields
+ * plus parallel arrays of metric names, kinds and values. Numbers and booleans
+ * are held as primitives, strings and anything else as objects, so each value
+ * keeps the Java type a Jackson Map decode would give it. Instances are owned
+ * by a single thread and reset between messages.
+ */
+public final class DeviceSample {
+    
+    public static final byte DOUBLE = 0;
+    public static final byte INT = 1;
+    public static final byte LONG = 2;
+    public static final byte BOOLEAN = 3;
+    public static final byte STRING = 4;
+    // Nulls, big numbers, nested objects and arrays, as Jackson maps them
+    public static final byte OTHER = 5;
+    
+    private static final int INITIAL_METRIC_CAPACITY = 16;
+    
+    private String[] metricNames = new String[INITIAL_METRIC_CAPACITY];
+    private byte[] metricKinds = new byte[INITIAL_METRIC_CAPACITY];
+    private double[] metricValues = new double[INITIAL_METRIC_CAPACITY];
+    private long[] metricLongs = new long[INITIAL_METRIC_CAPACITY];
+    private Object[] metricObjects = new Object[INITIAL_METRIC_CAPACITY];
+    private int metricCount;
+    
+    private String factoryId;
+    private String location;
+    private String messageType;
+    private double batteryLevel = Double.NaN;
+    private int signalStrength;
+    private boolean hasSignalStrength;
+    private long sequence;
+    private boolean hasSequence;
+    
+    public void reset() {
+        Arrays.fill(metricNames, 0, metricCount, null);
+        Arrays.fill(metricObjects, 0, metricCount, null);
+        metricCount = 0;
+        factoryId = null;
+        location = null;
+        messageType = null;
+        batteryLevel = Double.NaN;
+        hasSignalStrength = false;
+        hasSequence = false;
+    }
+    
+    public void addMetric(String name, double value) {
+        int index = add(name, DOUBLE);
+        metricValues[index] = value;
+    }
+    
+    // Integral JSON numbers; those that fit an int box as Integer, like Jackson's Map decode
+    public void addMetric(String name, long value) {
+        int index = add(name, value == (int) value ? INT : LONG);
+        metricLongs[index] = value;
+    }
+    
+    public void addMetric(String name, boolean value) {
+        int index = add(name, BOOLEAN);
+        metricLongs[index] = value ? 1 : 0;
+    }
+    
+    public void addMetric(String name, String value) {
+        int index = add(name, STRING);
+        metricObjects[index] = value;
+    }
+    
+    public void addOtherMetric(String name, Object value) {
+        int index = add(name, OTHER);
+        metricObjects[index] = value;
+    }
+    
+    public int getMetricCount() {
+        return metricCount;
+    }
+    
+    public String getMetricName(int index) {
+        return metricNames[index];
+    }
+    
+    public byte getMetricKind(int index) {
+        return metricKinds[index];
+    }
+    
+    // Numbers and booleans (as 1/0); NaN for strings and other values
+    public double getMetricValue(int index) {
+        switch (metricKinds[index]) {
+            case DOUBLE:
+                return metricValues[index];
+            case INT:
+            case LONG:
+            case BOOLEAN:
+                return metricLongs[index];
+            default:
+                return Double.NaN;
+        }
+    }
+    
+    // The value as the Kafka DTO carries it
+    public Object getMetric(int index) {
+        switch (metricKinds[index]) {
+            case DOUBLE:
+                return metricValues[index];
+            case INT:
+                return (int) metricLongs[index];
+            case LONG:
+                return metricLongs[index];
+            case BOOLEAN:
+                return metricLongs[index] != 0;
+            default:
+                return metricObjects[index];
+        }
+    }
+    
+    // Drops the metric at index; later metrics move down by one
+    public void removeMetric(int index) {
+        int moved = metricCount - index - 1;
+        System.arraycopy(metricNames, index + 1, metricNames, index, moved);
+        System.arraycopy(metricKinds, index + 1, metricKinds, index, moved);
+        System.arraycopy(metricValues, index + 1, metricValues, index, moved);
+        System.arraycopy(metricLongs, index + 1, metricLongs, index, moved);
+        System.arraycopy(metricObjects, index + 1, metricObjects, index, moved);
+        metricCount--;
+        metricNames[metricCount] = null;
+        metricObjects[metricCount] = null;
+    }
+    
+    public String getFactoryId() {
+        return factoryId;
+    }
+    
+    public void setFactoryId(String factoryId) {
+        this.factoryId = factoryId;
+    }
+    
+    public String getLocation() {
+        return location;
+    }
+    
+    public void setLocation(String location) {
+        this.location = location;
+    }
+    
+    public String getMessageType() {
+        return messageType;
+    }
+    
+    public void setMessageType(String messageType) {
+        this.messageType = messageType;
+    }
+    
+    public boolean hasBatteryLevel() {
+        return !Double.isNaN(batteryLevel);
+    }
+    
+    public double getBatteryLevel() {
+        return batteryLevel;
+    }
+    
+    public void setBatteryLevel(double batteryLevel) {
+        this.batteryLevel = batteryLevel;
+    }
+    
+    public boolean hasSignalStrength() {
+        return hasSignalStrength;
+    }
+    
+    public int getSignalStrength() {
+        return signalStrength;
+    }
+    
+    public void setSignalStrength(int signalStrength) {
+        this.signalStrength = signalStrength;
+        this.hasSignalStrength = true;
+    }
+    
+    public boolean hasSequence() {
+        return hasSequence;
+    }
+    
+    public long getSequence() {
+        return sequence;
+    }
+    
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+        this.hasSequence = true;
+    }
+    
+    // The DTO is what goes on the wire, so this is the one place values are boxed
+    public DeviceDataDto toDto(String deviceId, LocalDateTime timestamp) {
+        Map<String, Object> data = new HashMap<>(Math.max(4, metricCount * 2));
+        for (int i = 0; i < metricCount; i++) {
+            data.put(metricNames[i], getMetric(i));
+        }
+        
+        DeviceDataDto deviceData = new DeviceDataDto(deviceId, timestamp, data);
+        deviceData.setFactoryId(factoryId);
+        deviceData.setLocation(location);
+        deviceData.setMessageType(messageType);
+        if (hasBatteryLevel()) {
+            deviceData.setBatteryLevel(batteryLevel);
+        }
+        if (hasSignalStrength) {
+            deviceData.setSignalStrength(signalStrength);
+        }
+        if (hasSequence) {
+            deviceData.setSequence(sequence);
+        }
+        return deviceData;
+    }
+    
+    // Returns the new metric's index; store through the field after calling, as it may have grown
+    private int add(String name, byte kind) {
+        if (metricCount == metricNames.length) {
+            int capacity = metricCount * 2;
+            metricNames = Arrays.copyOf(metricNames, capacity);
+            metricKinds = Arrays.copyOf(metricKinds, capacity);
+            metricValues = Arrays.copyOf(metricValues, capacity);
+            metricLongs = Arrays.copyOf(metricLongs, capacity);
+            metricObjects = Arrays.copyOf(metricObjects, capacity);
+        }
+        metricNames[metricCount] = name;
+        metricKinds[metricCount] = kind;
+        return metricCount++;
+    }
+}
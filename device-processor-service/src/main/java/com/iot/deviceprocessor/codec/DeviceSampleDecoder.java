@@ -0,0 +1,194 @@
+package com.iot.deviceprocessor.codec;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.iot.common.dto.DeviceDataDto;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Streams an MQTT telemetry payload straight from its bytes into a reusable
+ * {@link DeviceSample}, without building a String or an intermediate Map.
+ *
+ * Every field keeps the type {@code objectMapper.readValue(payload, Map.class)}
+ * gives it: Integer, Long or Double for numbers, Boolean, String, and maps and
+ * lists for nested values. A flat payload ({"temperature":...}) therefore decodes
+ * to the same data as the Map path. A mock-device envelope ({"factoryId":...,
+ * "data":{"temperature":...}}) is recognized by its "data" object: the fields in
+ * it are lifted to the top level, factoryId, location, messageType, batteryLevel,
+ * signalStrength and sequence go to their DTO fields, and the envelope's other strings
+ * and nested values (deviceId, timestamp) are dropped. {@link #liftEnvelope} does
+ * the same for the Map path, so both produce the same DTO.
+ */
+public final class DeviceSampleDecoder {
+    
+    private static final String DATA_FIELD = "data";
+    
+    private final JsonFactory jsonFactory;
+    
+    public DeviceSampleDecoder(JsonFactory jsonFactory) {
+        this.jsonFactory = jsonFactory;
+    }
+    
+    public boolean decode(byte[] payload, DeviceSample sample) throws IOException {
+        sample.reset();
+        int dataStart = -1;
+        int dataEnd = -1;
+        try (JsonParser parser = jsonFactory.createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return false;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                // Field names are canonicalized by the parser, so repeated names are not re-allocated
+                String name = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (dataStart < 0 && value == JsonToken.START_OBJECT && DATA_FIELD.equals(name)) {
+                    dataStart = sample.getMetricCount();
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String field = parser.currentName();
+                        readValue(parser, parser.nextToken(), field, sample);
+                    }
+                    dataEnd = sample.getMetricCount();
+                } else {
+                    readValue(parser, value, name, sample);
+                }
+            }
+        }
+        if (dataStart >= 0) {
+            liftEnvelope(sample, dataStart, dataEnd);
+        }
+        return true;
+    }
+    
+    // The envelope handling of decode for a payload the Map path has already parsed
+    public static Map<String, Object> liftEnvelope(Map<String, Object> payload, DeviceDataDto deviceData) {
+        if (!(payload.get(DATA_FIELD) instanceof Map<?, ?> data)) {
+            return payload;
+        }
+        
+        Map<String, Object> lifted = new HashMap<>(Math.max(4, (payload.size() + data.size()) * 2));
+        for (Map.Entry<String, Object> entry : payload.entrySet()) {
+            String name = entry.getKey();
+            Object value = entry.getValue();
+            boolean numeric = value instanceof Number && !(value instanceof BigInteger);
+            if (DATA_FIELD.equals(name)) {
+                continue;
+            } else if (numeric && "batteryLevel".equals(name)) {
+                deviceData.setBatteryLevel(((Number) value).doubleValue());
+            } else if (numeric && "signalStrength".equals(name)) {
+                deviceData.setSignalStrength(((Number) value).intValue());
+            } else if ((value instanceof Integer || value instanceof Long) && "sequence".equals(name)) {
+                deviceData.setSequence(((Number) value).longValue());
+            } else if (value instanceof String text) {
+                switch (name) {
+                    case "factoryId":
+                        deviceData.setFactoryId(text);
+                        break;
+                    case "location":
+                        deviceData.setLocation(text);
+                        break;
+                    case "messageType":
+                        deviceData.setMessageType(text);
+                        break;
+                    default:
+                        break;
+                }
+            } else if (numeric || value instanceof Boolean) {
+                lifted.put(name, value);
+            }
+        }
+        for (Map.Entry<?, ?> entry : data.entrySet()) {
+            lifted.put(entry.getKey().toString(), entry.getValue());
+        }
+        return lifted;
+    }
+    
+    // Device id is the second topic level (devices/{deviceId}/data), found without split or regex
+    public static String deviceIdFromTopic(String topic) {
+        int start = topic.indexOf('/');
+        if (start < 0) {
+            return null;
+        }
+        int end = topic.indexOf('/', start + 1);
+        return topic.substring(start + 1, end < 0 ? topic.length() : end);
+    }
+    
+    private void readValue(JsonParser parser, JsonToken value, String name, DeviceSample sample) throws IOException {
+        switch (value) {
+            case VALUE_NUMBER_INT:
+                if (parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER) {
+                    sample.addOtherMetric(name, parser.getBigIntegerValue());
+                } else {
+                    sample.addMetric(name, parser.getLongValue());
+                }
+                break;
+            case VALUE_NUMBER_FLOAT:
+                sample.addMetric(name, parser.getDoubleValue());
+                break;
+            case VALUE_TRUE:
+                sample.addMetric(name, true);
+                break;
+            case VALUE_FALSE:
+                sample.addMetric(name, false);
+                break;
+            case VALUE_STRING:
+                sample.addMetric(name, parser.getText());
+                break;
+            case VALUE_NULL:
+                sample.addOtherMetric(name, null);
+                break;
+            case START_OBJECT:
+            case START_ARRAY:
+                // Rare in telemetry; bound to maps and lists when the factory has a codec, as the Map path does
+                if (parser.getCodec() != null) {
+                    sample.addOtherMetric(name, parser.readValueAs(Object.class));
+                } else {
+                    parser.skipChildren();
+                }
+                break;
+            default:
+                break;
+        }
+    }
+    
+    // Envelope fields are everything outside [dataStart, dataEnd); walked backwards so removals keep indices valid
+    private void liftEnvelope(DeviceSample sample, int dataStart, int dataEnd) {
+        for (int i = sample.getMetricCount() - 1; i >= 0; i--) {
+            if (i >= dataStart && i < dataEnd) continue;
+            
+            String name = sample.getMetricName(i);
+            byte kind = sample.getMetricKind(i);
+            boolean numeric = kind == DeviceSample.DOUBLE || kind == DeviceSample.INT || kind == DeviceSample.LONG;
+            if (numeric && "batteryLevel".equals(name)) {
+                sample.setBatteryLevel(sample.getMetricValue(i));
+            } else if (numeric && "signalStrength".equals(name)) {
+                sample.setSignalStrength((int) sample.getMetricValue(i));
+            } else if ((kind == DeviceSample.INT || kind == DeviceSample.LONG) && "sequence".equals(name)) {
+                sample.setSequence(((Number) sample.getMetric(i)).longValue());
+            } else if (kind == DeviceSample.STRING) {
+                String text = (String) sample.getMetric(i);
+                switch (name) {
+                    case "factoryId":
+                        sample.setFactoryId(text);
+                        break;
+                    case "location":
+                        sample.setLocation(text);
+                        break;
+                    case "messageType":
+                        sample.setMessageType(text);
+                        break;
+                    default:
+                        break;
+                }
+            } else if (kind != DeviceSample.OTHER) {
+                // Numbers and booleans next to the data object stay metrics
+                continue;
+            }
+            sample.removeMetric(i);
+        }
+    }
+}
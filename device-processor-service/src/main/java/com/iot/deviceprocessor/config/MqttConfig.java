@@ -1,12 +1,16 @@
 package com.iot.deviceprocessor.config;
 
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
 import org.eclipse.paho.client.mqttv3.MqttClient;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.UUID;
+
 @Configuration
 public class MqttConfig {
     
@@ -16,20 +20,42 @@ public class MqttConfig {
     @Value("${mqtt.client.id:device-processor}")
     private String mqttClientId;
     
+    // Identifies this replica in client ids; a random suffix is used when empty
+    @Value("${mqtt.client.instance-id:}")
+    private String mqttInstanceId;
+    
     @Value("${mqtt.username:}")
     private String mqttUsername;
     
     @Value("${mqtt.password:}")
     private String mqttPassword;
     
+    @Value("${mqtt.shared-subscription.enabled:false}")
+    private boolean sharedSubscriptionEnabled;
+    
+    @Value("${mqtt.shared-subscription.group:device-processor}")
+    private String sharedSubscriptionGroup;
+    
+    @Value("${mqtt.connections:1}")
+    private int mqttConnections;
+    
+    // Unacknowledged QoS 1 publishes allowed on a command connection
+    @Value("${mqtt.command.max-inflight:1000}")
+    private int commandMaxInflight;
+    
+    private String clientIdPrefix;
+    
     @Bean
     public MqttClient mqttClient() throws MqttException {
-        MqttClient client = new MqttClient(mqttBrokerUrl, mqttClientId);
-        return client;
+        return createClient(0);
     }
     
     @Bean
     public MqttConnectOptions mqttConnectOptions() {
+        return buildConnectOptions();
+    }
+    
+    private MqttConnectOptions buildConnectOptions() {
         MqttConnectOptions options = new MqttConnectOptions();
         options.setCleanSession(true);
         options.setConnectionTimeout(30);
@@ -45,4 +71,44 @@ public class MqttConfig {
         
         return options;
     }
+    
+    // Client ids are <mqtt.client.id>-<instance>-<connection index> so replicas never collide
+    public MqttClient createClient(int connectionIndex) throws MqttException {
+        return new MqttClient(mqttBrokerUrl, getClientIdPrefix() + "-" + connectionIndex);
+    }
+    
+    // Publish-only connections for commands, e.g. <mqtt.client.id>-<instance>-commands
+    public MqttAsyncClient createAsyncClient(String role) throws MqttException {
+        return new MqttAsyncClient(mqttBrokerUrl, getClientIdPrefix() + "-" + role, new MemoryPersistence());
+    }
+    
+    public MqttConnectOptions commandConnectOptions() {
+        // A separate instance: the bean is shared by the ingest connections
+        MqttConnectOptions options = buildConnectOptions();
+        options.setMaxInflight(commandMaxInflight);
+        return options;
+    }
+    
+    public int getCommandMaxInflight() {
+        return commandMaxInflight;
+    }
+    
+    // Without a shared subscription every extra connection would receive every message again
+    public int getConnectionCount() {
+        return sharedSubscriptionEnabled ? Math.max(1, mqttConnections) : 1;
+    }
+    
+    public String subscriptionFilter(String topic) {
+        return sharedSubscriptionEnabled ? "$share/" + sharedSubscriptionGroup + "/" + topic : topic;
+    }
+    
+    private synchronized String getClientIdPrefix() {
+        if (clientIdPrefix == null) {
+            String instanceId = mqttInstanceId.isEmpty()
+                    ? UUID.randomUUID().toString().substring(0, 8)
+                    : mqttInstanceId;
+            clientIdPrefix = mqttClientId + "-" + instanceId;
+        }
+        return clientIdPrefix;
+    }
 }
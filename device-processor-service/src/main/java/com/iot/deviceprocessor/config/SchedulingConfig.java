@@ -0,0 +1,27 @@
+package com.iot.deviceprocessor.config;
+
+import org.springframework.boot.task.ThreadPoolTaskSchedulerBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+@Configuration
+public class SchedulingConfig {
+    
+    public static final String INFLUX_SCHEDULER = "influxTaskScheduler";
+    
+    // Default scheduler for the timers (command timeouts, liveness, rollups), sized by spring.task.scheduling.*
+    @Bean
+    public ThreadPoolTaskScheduler taskScheduler(ThreadPoolTaskSchedulerBuilder builder) {
+        return builder.build();
+    }
+    
+    // InfluxDB flushes wait for a free writer and the spool drain writes synchronously; neither may hold up the timers
+    @Bean(INFLUX_SCHEDULER)
+    public ThreadPoolTaskScheduler influxTaskScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(2);
+        scheduler.setThreadNamePrefix("influx-scheduling-");
+        return scheduler;
+    }
+}
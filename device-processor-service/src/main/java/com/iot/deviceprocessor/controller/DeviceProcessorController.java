@@ -1,14 +1,25 @@
 package com.iot.deviceprocessor.controller;
 
 import com.iot.common.dto.ControlCommandDto;
+import com.iot.deviceprocessor.monitoring.IngestMetrics;
+import com.iot.deviceprocessor.monitoring.IngestMetrics.Stage;
+import com.iot.deviceprocessor.service.CommandDispatchService;
+import com.iot.deviceprocessor.service.DeviceRegistry;
+import com.iot.deviceprocessor.service.InfluxWriteService;
+import com.iot.deviceprocessor.service.LivenessMonitor;
+import com.iot.deviceprocessor.service.MqttDeduplicator;
+import com.iot.deviceprocessor.service.MqttIngestDispatcher;
 import com.iot.deviceprocessor.service.MqttService;
+import io.micrometer.core.instrument.Timer;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping("/processor")
@@ -18,22 +29,37 @@ public class DeviceProcessorController {
     @Autowired
     private MqttService mqttService;
     
+    @Autowired
+    private CommandDispatchService commandDispatchService;
+    
+    @Autowired
+    private IngestMetrics ingestMetrics;
+    
+    @Autowired
+    private MqttIngestDispatcher ingestDispatcher;
+    
+    @Autowired
+    private MqttDeduplicator deduplicator;
+    
+    @Autowired
+    private InfluxWriteService influxWriteService;
+    
+    @Autowired
+    private DeviceRegistry deviceRegistry;
+    
+    @Autowired
+    private LivenessMonitor livenessMonitor;
+    
     @PostMapping("/devices/{deviceId}/control")
     public ResponseEntity<Map<String, String>> sendControlCommand(
             @PathVariable String deviceId,
             @Valid @RequestBody ControlCommandDto command) {
         
         try {
-            // Convert command to JSON string
-            String commandJson = String.format(
-                "{\"commandId\":\"%s\",\"commandType\":\"%s\",\"payload\":\"%s\",\"timestamp\":\"%s\"}",
-                command.getCommandId(),
-                command.getCommandType(),
-                command.getPayload(),
-                command.getTimestamp()
-            );
-            
-            mqttService.publishControlCommand(deviceId, commandJson);
+            String result = commandDispatchService.dispatchToDevice(deviceId, command);
+            if (!CommandDispatchService.SENT.equals(result)) {
+                throw new IllegalStateException("publish " + result.toLowerCase());
+            }
             
             Map<String, String> response = new HashMap<>();
             response.put("status", "success");
@@ -56,16 +82,11 @@ public class DeviceProcessorController {
             @Valid @RequestBody ControlCommandDto command) {
         
         try {
-            // Convert command to JSON string
-            String commandJson = String.format(
-                "{\"commandId\":\"%s\",\"commandType\":\"%s\",\"payload\":\"%s\",\"timestamp\":\"%s\"}",
-                command.getCommandId(),
-                command.getCommandType(),
-                command.getPayload(),
-                command.getTimestamp()
-            );
-            
-            mqttService.publishBroadcastCommand(commandJson);
+            command.setBroadcastToAll(true);
+            String result = commandDispatchService.dispatch(command).get("all");
+            if (!CommandDispatchService.SENT.equals(result)) {
+                throw new IllegalStateException("publish " + result.toLowerCase());
+            }
             
             Map<String, String> response = new HashMap<>();
             response.put("status", "success");
@@ -83,6 +104,34 @@ public class DeviceProcessorController {
         }
     }
     
+    // Targets deviceIds, else every known device of factoryId, else all devices if broadcastToAll
+    @PostMapping("/commands")
+    public ResponseEntity<Map<String, Object>> dispatchCommand(@Valid @RequestBody ControlCommandDto command) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("commandId", command.getCommandId());
+        
+        try {
+            long start = System.currentTimeMillis();
+            Map<String, String> results = commandDispatchService.dispatch(command);
+            long sent = results.values().stream().filter(CommandDispatchService.SENT::equals).count();
+            
+            response.put("status", results.isEmpty() ? "no_targets" : sent == results.size() ? "success" : "partial");
+            response.put("targeted", results.size());
+            response.put("sent", sent);
+            response.put("failed", results.size() - sent);
+            response.put("durationMs", System.currentTimeMillis() - start);
+            response.put("results", results);
+            
+            return ResponseEntity.ok(response);
+            
+        } catch (Exception e) {
+            response.put("status", "error");
+            response.put("message", "Failed to dispatch command: " + e.getMessage());
+            
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+    
     @GetMapping("/health")
     public ResponseEntity<Map<String, String>> healthCheck() {
         Map<String, String> health = new HashMap<>();
@@ -99,7 +148,31 @@ public class DeviceProcessorController {
         stats.put("service", "device-processor-service");
         stats.put("status", "running");
         stats.put("timestamp", java.time.LocalDateTime.now().toString());
-        stats.put("mqtt_connected", true); // This should be checked from MqttService
+        stats.put("mqtt_connected", mqttService.isConnected());
+        stats.put("mqtt_connections", mqttService.getConnectedCount() + "/" + mqttService.getConnectionCount());
+        stats.put("messages_received", ingestMetrics.getMessagesReceived());
+        stats.put("duplicates_dropped", (long) deduplicator.getDuplicateCount());
+        stats.put("anomalies_detected", ingestMetrics.getAnomaliesDetected());
+        stats.put("ingest_queue_depth", ingestDispatcher.getQueueDepth());
+        stats.put("influx_pending_points", influxWriteService.getPendingPointCount());
+        stats.put("influx_in_flight_batches", influxWriteService.getInFlightBatchCount());
+        stats.put("device_registry_size", deviceRegistry.size());
+        stats.put("device_registry_hit_rate", deviceRegistry.getHitRate());
+        stats.put("devices_online", livenessMonitor.getOnlineCount());
+        stats.put("devices_offline", livenessMonitor.getOfflineCount());
+        
+        // Full histograms are available from /actuator/prometheus
+        Map<String, Object> stages = new LinkedHashMap<>();
+        for (Stage stage : Stage.values()) {
+            Timer timer = ingestMetrics.getTimer(stage);
+            Map<String, Object> stageStats = new HashMap<>();
+            stageStats.put("count", timer.count());
+            stageStats.put("mean_ms", timer.mean(TimeUnit.MILLISECONDS));
+            stageStats.put("max_ms", timer.max(TimeUnit.MILLISECONDS));
+            stageStats.put("errors", ingestMetrics.getErrorCount(stage));
+            stages.put(stage.getTag(), stageStats);
+        }
+        stats.put("stages", stages);
         
         return ResponseEntity.ok(stats);
     }
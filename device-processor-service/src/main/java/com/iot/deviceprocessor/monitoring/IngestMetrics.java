@@ -0,0 +1,111 @@
+package com.iot.deviceprocessor.monitoring;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-stage timers and counters for the ingestion pipeline, registered once so the
+ * hot path only calls record/increment. Also decides which messages get logged,
+ * so per-message logging costs one counter increment for the rest.
+ */
+@Component
+public class IngestMetrics {
+    
+    public enum Stage {
+        MQTT_RECEIVE("mqtt.receive"),
+        DECODE("decode"),
+        KAFKA_SEND("kafka.send"),
+        INFLUX_WRITE("influx.write"),
+        ANOMALY_CHECK("anomaly.check");
+        
+        private final String tag;
+        
+        Stage(String tag) {
+            this.tag = tag;
+        }
+        
+        public String getTag() {
+            return tag;
+        }
+    }
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
+    
+    // Log one message in this many, errors included; 0 turns per-message logging off
+    @Value("${processor.logging.sample-rate:1000}")
+    private long logSampleRate;
+    
+    private final Map<Stage, Timer> timers = new EnumMap<>(Stage.class);
+    private final Map<Stage, Counter> errorCounters = new EnumMap<>(Stage.class);
+    private final AtomicLong logSequence = new AtomicLong();
+    
+    private Counter messagesReceived;
+    private Counter anomaliesDetected;
+    
+    @PostConstruct
+    public void initialize() {
+        for (Stage stage : Stage.values()) {
+            timers.put(stage, Timer.builder("processor.stage.duration")
+                    .description("Time spent in each ingestion stage")
+                    .tag("stage", stage.getTag())
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .register(meterRegistry));
+            errorCounters.put(stage, Counter.builder("processor.stage.errors")
+                    .tag("stage", stage.getTag())
+                    .register(meterRegistry));
+        }
+        messagesReceived = Counter.builder("processor.messages.received")
+                .description("MQTT messages accepted for processing")
+                .register(meterRegistry);
+        anomaliesDetected = Counter.builder("processor.anomalies.detected")
+                .description("Samples that exceeded a threshold rule")
+                .register(meterRegistry);
+    }
+    
+    public void record(Stage stage, long startNanos) {
+        timers.get(stage).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+    
+    public void recordError(Stage stage) {
+        errorCounters.get(stage).increment();
+    }
+    
+    public void messageReceived() {
+        messagesReceived.increment();
+    }
+    
+    public void anomalyDetected() {
+        anomaliesDetected.increment();
+    }
+    
+    public boolean shouldLogSample() {
+        return logSampleRate > 0 && logSequence.incrementAndGet() % logSampleRate == 0;
+    }
+    
+    public long getMessagesReceived() {
+        return (long) messagesReceived.count();
+    }
+    
+    public long getAnomaliesDetected() {
+        return (long) anomaliesDetected.count();
+    }
+    
+    public long getErrorCount(Stage stage) {
+        return (long) errorCounters.get(stage).count();
+    }
+    
+    public Timer getTimer(Stage stage) {
+        return timers.get(stage);
+    }
+}
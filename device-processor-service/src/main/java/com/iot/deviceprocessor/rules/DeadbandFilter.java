@@ -0,0 +1,273 @@
+package com.iot.deviceprocessor.rules;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Per-device change filter deciding which samples are significant enough to store
+ * and forward. Only watched metrics are compared: those with their own deviation and
+ * the device's primary metrics; other fields (humidity, counters, ...) are carried
+ * along with stored samples but never make one significant. State is kept per metric
+ * in parallel arrays. A sample is stored if a watched metric moved past its deviation,
+ * a watched metric first appears, or nothing has been stored for max-silence (heartbeat).
+ *
+ * Built from device_configurations entries:
+ * <ul>
+ *   <li>{@code deadband_mode}: {@code off}, {@code absolute}, {@code percent} or {@code swinging_door}</li>
+ *   <li>{@code deadband_value} / {@code deadband_value.<metric>}: allowed deviation, in metric units
+ *       or percent of the last stored value; a per-metric entry also watches that metric</li>
+ *   <li>{@code deadband_metrics}: comma-separated primary metrics, replacing the service default</li>
+ *   <li>{@code deadband_max_silence_seconds}: forward at least one sample this often</li>
+ * </ul>
+ * Swinging door keeps the slope corridor from the last stored value. When a sample
+ * closes the corridor, the previous sample, the last one still inside it, is stored
+ * instead and becomes the new pivot, and the corridor restarts from it with the
+ * closing sample; see {@link Decision#STORE_PREVIOUS}.
+ */
+public final class DeadbandFilter {
+    
+    public static final String MODE = "deadband_mode";
+    public static final String DEVIATION = "deadband_value";
+    public static final String METRICS = "deadband_metrics";
+    public static final String MAX_SILENCE_SECONDS = "deadband_max_silence_seconds";
+    
+    public enum Mode {
+        OFF, ABSOLUTE, PERCENT, SWINGING_DOOR;
+        
+        public static Mode parse(String value, Mode fallback) {
+            if (value == null || value.isBlank()) return fallback;
+            try {
+                return Mode.valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                return fallback;
+            }
+        }
+    }
+    
+    public enum Decision {
+        SUPPRESS,
+        STORE,
+        // The previous sample closes the trend; this one is held as the first of the next corridor
+        STORE_PREVIOUS,
+        STORE_PREVIOUS_AND_CURRENT;
+        
+        public boolean storesPrevious() {
+            return this == STORE_PREVIOUS || this == STORE_PREVIOUS_AND_CURRENT;
+        }
+        
+        public boolean storesCurrent() {
+            return this == STORE || this == STORE_PREVIOUS_AND_CURRENT;
+        }
+    }
+    
+    private final Mode mode;
+    private final double defaultDeviation;
+    private final Map<String, Double> metricDeviations;
+    private final Set<String> primaryMetrics;
+    private final long maxSilenceMillis;
+    
+    // Per-watched-metric state, grown as metrics first appear
+    private String[] metrics = new String[4];
+    private double[] deviations = new double[4];
+    private double[] storedValues = new double[4];
+    private long[] storedTimes = new long[4];
+    private double[] slopeUpper = new double[4];
+    private double[] slopeLower = new double[4];
+    private double[] lastValues = new double[4];
+    private long[] lastTimes = new long[4];
+    private int metricCount;
+    
+    private long lastForwardMillis = Long.MIN_VALUE;
+    private long lastSampleMillis = Long.MIN_VALUE;
+    private boolean significant;
+    private boolean corridorClosed;
+    
+    private DeadbandFilter(Mode mode, double defaultDeviation, Map<String, Double> metricDeviations,
+                           Set<String> primaryMetrics, long maxSilenceMillis) {
+        this.mode = mode;
+        this.defaultDeviation = defaultDeviation;
+        this.metricDeviations = metricDeviations;
+        this.primaryMetrics = primaryMetrics;
+        this.maxSilenceMillis = maxSilenceMillis;
+    }
+    
+    public static DeadbandFilter fromConfiguration(Map<String, String> configuration, Mode defaultMode,
+                                                   double defaultDeviation, Set<String> defaultPrimaryMetrics,
+                                                   long defaultMaxSilenceMillis) {
+        if (configuration == null) configuration = Map.of();
+        
+        Mode mode = Mode.parse(configuration.get(MODE), defaultMode);
+        Double deviation = parse(configuration.get(DEVIATION));
+        Double silenceSeconds = parse(configuration.get(MAX_SILENCE_SECONDS));
+        
+        Map<String, Double> metricDeviations = new HashMap<>();
+        for (Map.Entry<String, String> entry : configuration.entrySet()) {
+            if (entry.getKey().startsWith(DEVIATION + ".")) {
+                Double value = parse(entry.getValue());
+                if (value != null) metricDeviations.put(entry.getKey().substring(DEVIATION.length() + 1), value);
+            }
+        }
+        
+        Set<String> primaryMetrics = defaultPrimaryMetrics;
+        String configuredMetrics = configuration.get(METRICS);
+        if (configuredMetrics != null) {
+            primaryMetrics = new HashSet<>();
+            for (String metric : configuredMetrics.split(",")) {
+                if (!metric.isBlank()) primaryMetrics.add(metric.trim());
+            }
+        }
+        
+        return new DeadbandFilter(mode,
+                deviation != null ? deviation : defaultDeviation,
+                metricDeviations,
+                primaryMetrics,
+                silenceSeconds != null ? (long) (silenceSeconds * 1000) : defaultMaxSilenceMillis);
+    }
+    
+    public Mode getMode() {
+        return mode;
+    }
+    
+    // Decides what to store for this sample and updates the filter state
+    public synchronized Decision accept(Map<String, Object> data, long timestampMillis) {
+        if (mode == Mode.OFF || data == null) return Decision.STORE;
+        
+        significant = lastForwardMillis == Long.MIN_VALUE || timestampMillis - lastForwardMillis >= maxSilenceMillis;
+        corridorClosed = false;
+        for (Map.Entry<String, Object> entry : data.entrySet()) {
+            if (entry.getValue() instanceof Number && isWatched(entry.getKey())) {
+                check(entry.getKey(), ((Number) entry.getValue()).doubleValue(), timestampMillis);
+            }
+        }
+        
+        Decision decision;
+        if (significant) {
+            // The stored sample becomes the reference for every watched metric it carries
+            for (Map.Entry<String, Object> entry : data.entrySet()) {
+                int index = entry.getValue() instanceof Number ? indexOf(entry.getKey()) : -1;
+                if (index >= 0) {
+                    pivot(index, ((Number) entry.getValue()).doubleValue(), timestampMillis);
+                }
+            }
+            lastForwardMillis = timestampMillis;
+            decision = corridorClosed ? Decision.STORE_PREVIOUS_AND_CURRENT : Decision.STORE;
+        } else if (corridorClosed) {
+            // Restart every metric the previous sample carried from it, then narrow with this sample
+            for (int i = 0; i < metricCount; i++) {
+                if (lastTimes[i] == lastSampleMillis) {
+                    pivot(i, lastValues[i], lastTimes[i]);
+                }
+            }
+            for (Map.Entry<String, Object> entry : data.entrySet()) {
+                int index = entry.getValue() instanceof Number ? indexOf(entry.getKey()) : -1;
+                if (index >= 0) {
+                    narrow(index, ((Number) entry.getValue()).doubleValue(), timestampMillis);
+                }
+            }
+            lastForwardMillis = lastSampleMillis;
+            decision = Decision.STORE_PREVIOUS;
+        } else {
+            decision = Decision.SUPPRESS;
+        }
+        
+        for (Map.Entry<String, Object> entry : data.entrySet()) {
+            int index = entry.getValue() instanceof Number ? indexOf(entry.getKey()) : -1;
+            if (index >= 0) {
+                lastValues[index] = ((Number) entry.getValue()).doubleValue();
+                lastTimes[index] = timestampMillis;
+            }
+        }
+        lastSampleMillis = timestampMillis;
+        return decision;
+    }
+    
+    private boolean isWatched(String metric) {
+        return primaryMetrics.contains(metric) || metricDeviations.containsKey(metric);
+    }
+    
+    private void check(String metric, double value, long timestampMillis) {
+        int index = indexOf(metric);
+        if (index < 0) {
+            add(metric, value, timestampMillis);
+            significant = true;
+            return;
+        }
+        
+        double deviation = deviations[index];
+        double delta = value - storedValues[index];
+        switch (mode) {
+            case ABSOLUTE:
+                if (Math.abs(delta) > deviation) significant = true;
+                break;
+            case PERCENT:
+                if (Math.abs(delta) > Math.abs(storedValues[index]) * deviation / 100.0) significant = true;
+                break;
+            case SWINGING_DOOR:
+                if (timestampMillis <= storedTimes[index]) {
+                    if (Math.abs(delta) > deviation) significant = true;
+                    break;
+                }
+                if (!narrow(index, value, timestampMillis)) corridorClosed = true;
+                break;
+            default:
+                significant = true;
+        }
+    }
+    
+    // Narrows the swinging-door corridor from the pivot; returns false once it has closed
+    private boolean narrow(int index, double value, long timestampMillis) {
+        long elapsed = timestampMillis - storedTimes[index];
+        if (elapsed <= 0) return true;
+        double delta = value - storedValues[index];
+        slopeUpper[index] = Math.min(slopeUpper[index], (delta + deviations[index]) / elapsed);
+        slopeLower[index] = Math.max(slopeLower[index], (delta - deviations[index]) / elapsed);
+        return slopeLower[index] <= slopeUpper[index];
+    }
+    
+    private void pivot(int index, double value, long timestampMillis) {
+        storedValues[index] = value;
+        storedTimes[index] = timestampMillis;
+        slopeUpper[index] = Double.POSITIVE_INFINITY;
+        slopeLower[index] = Double.NEGATIVE_INFINITY;
+    }
+    
+    private int indexOf(String metric) {
+        for (int i = 0; i < metricCount; i++) {
+            if (metrics[i] == metric) return i;
+        }
+        for (int i = 0; i < metricCount; i++) {
+            if (metrics[i].equals(metric)) return i;
+        }
+        return -1;
+    }
+    
+    private void add(String metric, double value, long timestampMillis) {
+        if (metricCount == metrics.length) {
+            int capacity = metricCount * 2;
+            metrics = Arrays.copyOf(metrics, capacity);
+            deviations = Arrays.copyOf(deviations, capacity);
+            storedValues = Arrays.copyOf(storedValues, capacity);
+            storedTimes = Arrays.copyOf(storedTimes, capacity);
+            slopeUpper = Arrays.copyOf(slopeUpper, capacity);
+            slopeLower = Arrays.copyOf(slopeLower, capacity);
+            lastValues = Arrays.copyOf(lastValues, capacity);
+            lastTimes = Arrays.copyOf(lastTimes, capacity);
+        }
+        metrics[metricCount] = metric;
+        deviations[metricCount] = metricDeviations.getOrDefault(metric, defaultDeviation);
+        pivot(metricCount, value, timestampMillis);
+        metricCount++;
+    }
+    
+    private static Double parse(String value) {
+        if (value == null) return null;
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
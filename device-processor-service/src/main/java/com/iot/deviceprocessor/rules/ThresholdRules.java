@@ -0,0 +1,179 @@
+package com.iot.deviceprocessor.rules;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiled threshold limits for one device, held as parallel arrays so a sample is
+ * checked with a short linear scan instead of per-metric map lookups.
+ *
+ * Built from device_configurations entries:
+ * <ul>
+ *   <li>{@code threshold_high} / {@code threshold_low} apply to {@code threshold_metric}; without
+ *       it they are ignored, as one limit cannot fit temperature, pressure and vibration alike</li>
+ *   <li>{@code threshold_high.<metric>} / {@code threshold_low.<metric>} apply to one metric</li>
+ * </ul>
+ * Metrics without configured limits keep the factory defaults.
+ */
+public final class ThresholdRules {
+    
+    public static final String THRESHOLD_HIGH = "threshold_high";
+    public static final String THRESHOLD_LOW = "threshold_low";
+    public static final String THRESHOLD_METRIC = "threshold_metric";
+    
+    public static final ThresholdRules DEFAULT = new Builder()
+            .rule("temperature", "Temperature", "°C", -10.0, 80.0)
+            .rule("pressure", "Pressure", " bar", 0.1, 10.0)
+            .rule("vibration", "Vibration", " g", Double.NEGATIVE_INFINITY, 5.0)
+            .build();
+    
+    private final String[] metrics;
+    private final String[] labels;
+    private final String[] units;
+    private final double[] low;
+    private final double[] high;
+    
+    private ThresholdRules(Builder builder) {
+        int size = builder.metrics.size();
+        metrics = builder.metrics.toArray(new String[size]);
+        labels = builder.labels.toArray(new String[size]);
+        units = builder.units.toArray(new String[size]);
+        low = new double[size];
+        high = new double[size];
+        for (int i = 0; i < size; i++) {
+            low[i] = builder.low.get(i);
+            high[i] = builder.high.get(i);
+        }
+    }
+    
+    public static ThresholdRules fromConfiguration(Map<String, String> configuration) {
+        if (configuration == null || configuration.isEmpty()) {
+            return DEFAULT;
+        }
+        
+        Builder builder = DEFAULT.toBuilder();
+        String pinnedMetric = configuration.get(THRESHOLD_METRIC);
+        
+        for (Map.Entry<String, String> entry : configuration.entrySet()) {
+            String key = entry.getKey();
+            Double value = parse(entry.getValue());
+            if (value == null) continue;
+            
+            if (key.equals(THRESHOLD_HIGH)) {
+                if (pinnedMetric != null) builder.high(pinnedMetric, value);
+            } else if (key.equals(THRESHOLD_LOW)) {
+                if (pinnedMetric != null) builder.low(pinnedMetric, value);
+            } else if (key.startsWith(THRESHOLD_HIGH + ".")) {
+                builder.high(key.substring(THRESHOLD_HIGH.length() + 1), value);
+            } else if (key.startsWith(THRESHOLD_LOW + ".")) {
+                builder.low(key.substring(THRESHOLD_LOW.length() + 1), value);
+            }
+        }
+        return builder.build();
+    }
+    
+    // True if the configuration has unscoped limits that fromConfiguration ignores
+    public static boolean hasUnscopedLimitsWithoutMetric(Map<String, String> configuration) {
+        return configuration != null && configuration.get(THRESHOLD_METRIC) == null
+                && (configuration.containsKey(THRESHOLD_HIGH) || configuration.containsKey(THRESHOLD_LOW));
+    }
+    
+    public int size() {
+        return metrics.length;
+    }
+    
+    public int indexOf(String metric) {
+        // Metric names from the decoder are canonical strings, so identity usually matches first
+        for (int i = 0; i < metrics.length; i++) {
+            if (metrics[i] == metric) return i;
+        }
+        for (int i = 0; i < metrics.length; i++) {
+            if (metrics[i].equals(metric)) return i;
+        }
+        return -1;
+    }
+    
+    public double getLow(int index) {
+        return low[index];
+    }
+    
+    public double getHigh(int index) {
+        return high[index];
+    }
+    
+    // Returns null when every metric is within limits, otherwise the anomaly details
+    public String evaluate(Map<String, Object> data) {
+        StringBuilder details = null;
+        for (Map.Entry<String, Object> entry : data.entrySet()) {
+            if (!(entry.getValue() instanceof Number)) continue;
+            
+            int index = indexOf(entry.getKey());
+            if (index < 0) continue;
+            
+            double value = ((Number) entry.getValue()).doubleValue();
+            if (value > high[index] || value < low[index]) {
+                if (details == null) details = new StringBuilder();
+                details.append(labels[index]).append(" anomaly: ").append(value).append(units[index]).append(". ");
+            }
+        }
+        return details == null ? null : details.toString();
+    }
+    
+    private Builder toBuilder() {
+        Builder builder = new Builder();
+        for (int i = 0; i < metrics.length; i++) {
+            builder.rule(metrics[i], labels[i], units[i], low[i], high[i]);
+        }
+        return builder;
+    }
+    
+    private static Double parse(String value) {
+        if (value == null) return null;
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+    
+    private static final class Builder {
+        private final List<String> metrics = new ArrayList<>();
+        private final List<String> labels = new ArrayList<>();
+        private final List<String> units = new ArrayList<>();
+        private final List<Double> low = new ArrayList<>();
+        private final List<Double> high = new ArrayList<>();
+        
+        Builder rule(String metric, String label, String unit, double lowLimit, double highLimit) {
+            metrics.add(metric.intern());
+            labels.add(label);
+            units.add(unit);
+            low.add(lowLimit);
+            high.add(highLimit);
+            return this;
+        }
+        
+        Builder low(String metric, double value) {
+            low.set(indexFor(metric), value);
+            return this;
+        }
+        
+        Builder high(String metric, double value) {
+            high.set(indexFor(metric), value);
+            return this;
+        }
+        
+        private int indexFor(String metric) {
+            int index = metrics.indexOf(metric);
+            if (index < 0) {
+                rule(metric, metric, "", Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+                index = metrics.size() - 1;
+            }
+            return index;
+        }
+        
+        ThresholdRules build() {
+            return new ThresholdRules(this);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.iot.deviceprocessor.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.iot.common.dto.ControlCommandDto;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fans control commands out to their target devices. Publishes go through the
+ * CommandScheduler, which orders them by priority lane and pipelines them over an
+ * asynchronous MQTT connection, so commanding a whole factory costs roughly one round
+ * trip per in-flight window instead of one per device.
+ */
+@Service
+public class CommandDispatchService {
+
+    public static final String SENT = "SENT";
+    public static final String FAILED = "FAILED";
+    public static final String TIMED_OUT = "TIMED_OUT";
+    public static final String REJECTED = "REJECTED";
+
+    @Autowired
+    private CommandScheduler commandScheduler;
+
+    @Autowired
+    private DeviceRegistry deviceRegistry;
+
+    @Autowired
+    private CommandTracker commandTracker;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Upper bound for a whole bulk dispatch to be acknowledged by the broker
+    @Value("${mqtt.command.dispatch-timeout-ms:30000}")
+    private long dispatchTimeoutMs;
+
+    private Timer dispatchTimer;
+
+    @PostConstruct
+    public void initialize() {
+        dispatchTimer = Timer.builder("mqtt.command.dispatch")
+                .description("Time to publish a command to all of its target devices")
+                .register(meterRegistry);
+    }
+
+    // Serialized once per command and shared by every device message
+    public byte[] serialize(ControlCommandDto command) throws JsonProcessingException {
+        Map<String, Object> message = new LinkedHashMap<>();
+        message.put("commandId", command.getCommandId());
+        message.put("commandType", command.getCommandType());
+        message.put("payload", command.getPayload());
+        message.put("timestamp", command.getTimestamp() != null ? command.getTimestamp().toString() : LocalDateTime.now().toString());
+        if (command.getParameters() != null) {
+            message.put("parameters", command.getParameters());
+        }
+        return objectMapper.writeValueAsBytes(message);
+    }
+
+    // Returns deviceId -> SENT, FAILED, TIMED_OUT or REJECTED; broadcasts report a single "all" entry
+    public Map<String, String> dispatch(ControlCommandDto command) throws JsonProcessingException {
+        long start = System.nanoTime();
+        byte[] payload = serialize(command);
+        CommandScheduler.Lane lane = commandScheduler.laneFor(command);
+
+        Map<String, String> results = new LinkedHashMap<>();
+        if (command.isBroadcastToAll()) {
+            CompletableFuture<String> pending = commandScheduler.submit(lane, "devices/all/control", payload);
+            results.put("all", await(pending));
+            commandScheduler.withdraw(pending);
+        } else {
+            List<String> targets = resolveTargets(command);
+            List<CompletableFuture<String>> pending = new ArrayList<>(targets.size());
+            for (String deviceId : targets) {
+                pending.add(submitTracked(command, deviceId, lane, payload));
+            }
+
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(dispatchTimeoutMs);
+            for (int i = 0; i < targets.size(); i++) {
+                results.put(targets.get(i), awaitTracked(command, targets.get(i), pending.get(i), deadline));
+            }
+        }
+
+        dispatchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return results;
+    }
+
+    public String dispatchToDevice(String deviceId, ControlCommandDto command) throws JsonProcessingException {
+        byte[] payload = serialize(command);
+        CompletableFuture<String> pending = submitTracked(command, deviceId, commandScheduler.laneFor(command), payload);
+        return awaitTracked(command, deviceId, pending, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(dispatchTimeoutMs));
+    }
+
+    // Tracked before queueing so a fast reply always finds its command; the timeout starts once it is published
+    private CompletableFuture<String> submitTracked(ControlCommandDto command, String deviceId,
+                                                    CommandScheduler.Lane lane, byte[] payload) {
+        commandTracker.track(command, deviceId, factoryOf(command, deviceId));
+        return commandScheduler.submit(lane, "devices/" + deviceId + "/control", payload,
+                () -> commandTracker.started(command.getCommandId(), deviceId));
+    }
+
+    private String awaitTracked(ControlCommandDto command, String deviceId, CompletableFuture<String> pending,
+                                long deadlineNanos) {
+        String result = await(pending, deadlineNanos);
+        // A command still queued when the caller gives up is withdrawn, so it is never published late
+        boolean withdrawn = commandScheduler.withdraw(pending);
+        if (withdrawn || FAILED.equals(result) || REJECTED.equals(result)) {
+            commandTracker.cancel(command.getCommandId(), deviceId);
+        }
+        return result;
+    }
+
+    private String factoryOf(ControlCommandDto command, String deviceId) {
+        if (command.getFactoryId() != null) return command.getFactoryId();
+        DeviceRegistry.DeviceMetadata metadata = deviceRegistry.get(deviceId);
+        return metadata != null ? metadata.factoryId() : null;
+    }
+
+    private List<String> resolveTargets(ControlCommandDto command) {
+        if (command.getDeviceIds() != null && !command.getDeviceIds().isEmpty()) {
+            return command.getDeviceIds();
+        }
+        if (command.getFactoryId() != null) {
+            return deviceRegistry.deviceIdsInFactory(command.getFactoryId());
+        }
+        return List.of();
+    }
+
+    private String await(CompletableFuture<String> result) {
+        return await(result, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(dispatchTimeoutMs));
+    }
+
+    private String await(CompletableFuture<String> result, long deadlineNanos) {
+        try {
+            return result.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return FAILED;
+        } catch (Exception e) {
+            return TIMED_OUT;
+        }
+    }
+}
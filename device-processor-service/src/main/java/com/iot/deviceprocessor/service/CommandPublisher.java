@@ -0,0 +1,158 @@
+package com.iot.deviceprocessor.service;
+
+import com.iot.deviceprocessor.config.MqttConfig;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asynchronous MQTT connections used for control commands. Routine commands share one
+ * connection pipelined up to mqtt.command.max-inflight unacknowledged publishes;
+ * emergency commands use their own connection so they never wait behind that window.
+ * The scheduler reserves a routine slot before it takes a command off a lane, so it
+ * never holds a command while the window is full.
+ */
+@Service
+public class CommandPublisher {
+
+    @Autowired
+    private MqttConfig mqttConfig;
+
+    // How long an emergency publish may wait for a free in-flight slot; routine ones are reserved first
+    @Value("${mqtt.command.dispatch-timeout-ms:30000}")
+    private long permitTimeoutMs;
+
+    private Connection routine;
+    private Connection emergency;
+
+    @PostConstruct
+    public void initialize() {
+        routine = new Connection("commands", mqttConfig.getCommandMaxInflight());
+        emergency = new Connection("emergency", mqttConfig.getCommandMaxInflight());
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        routine.close();
+        emergency.close();
+    }
+
+    // Completes with SENT once the broker acknowledges the publish
+    public CompletableFuture<String> publish(String topic, byte[] payload, boolean emergencyConnection) {
+        return (emergencyConnection ? emergency : routine).publish(topic, payload);
+    }
+
+    // Takes a routine in-flight slot without waiting; publishReserved gives it back once acknowledged
+    public boolean tryReserveRoutine() {
+        return routine.inflightPermits.tryAcquire();
+    }
+
+    public CompletableFuture<String> publishReserved(String topic, byte[] payload) {
+        return routine.send(topic, payload);
+    }
+
+    // Gives back a reserved slot that was not used
+    public void releaseReserved() {
+        routine.inflightPermits.release();
+    }
+
+    public boolean isConnected() {
+        return routine.isConnected() && emergency.isConnected();
+    }
+
+    private class Connection {
+        private final Semaphore inflightPermits;
+        private MqttAsyncClient client;
+
+        Connection(String role, int maxInflight) {
+            inflightPermits = new Semaphore(maxInflight);
+            try {
+                client = mqttConfig.createAsyncClient(role);
+                client.connect(mqttConfig.commandConnectOptions()).waitForCompletion(TimeUnit.SECONDS.toMillis(30));
+                System.out.println("MQTT command client " + client.getClientId() + " connected");
+            } catch (MqttException e) {
+                System.err.println("Failed to connect MQTT " + role + " client: " + e.getMessage());
+            }
+        }
+
+        CompletableFuture<String> publish(String topic, byte[] payload) {
+            CompletableFuture<String> result = new CompletableFuture<>();
+            if (client == null) {
+                result.complete(CommandDispatchService.FAILED);
+                return result;
+            }
+
+            try {
+                if (!inflightPermits.tryAcquire(permitTimeoutMs, TimeUnit.MILLISECONDS)) {
+                    result.complete(CommandDispatchService.TIMED_OUT);
+                    return result;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                result.complete(CommandDispatchService.FAILED);
+                return result;
+            }
+            return send(topic, payload);
+        }
+
+        // Caller holds an in-flight permit; it is released when the publish completes
+        CompletableFuture<String> send(String topic, byte[] payload) {
+            CompletableFuture<String> result = new CompletableFuture<>();
+            if (client == null) {
+                inflightPermits.release();
+                result.complete(CommandDispatchService.FAILED);
+                return result;
+            }
+
+            MqttMessage message = new MqttMessage(payload);
+            message.setQos(1);
+            message.setRetained(false);
+            try {
+                client.publish(topic, message, null, new IMqttActionListener() {
+                    @Override
+                    public void onSuccess(IMqttToken token) {
+                        inflightPermits.release();
+                        result.complete(CommandDispatchService.SENT);
+                    }
+
+                    @Override
+                    public void onFailure(IMqttToken token, Throwable exception) {
+                        inflightPermits.release();
+                        result.complete(CommandDispatchService.FAILED);
+                    }
+                });
+            } catch (MqttException e) {
+                inflightPermits.release();
+                result.complete(CommandDispatchService.FAILED);
+            }
+            return result;
+        }
+
+        boolean isConnected() {
+            return client != null && client.isConnected();
+        }
+
+        void close() {
+            if (client == null) return;
+            try {
+                if (client.isConnected()) {
+                    client.disconnect().waitForCompletion(TimeUnit.SECONDS.toMillis(10));
+                }
+                client.close();
+            } catch (MqttException e) {
+                System.err.println("Error disconnecting MQTT client " + client.getClientId() + ": " + e.getMessage());
+            }
+        }
+    }
+}
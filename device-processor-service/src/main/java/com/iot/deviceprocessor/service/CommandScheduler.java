@@ -0,0 +1,268 @@
+package com.iot.deviceprocessor.service;
+
+import com.iot.common.dto.ControlCommandDto;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Orders command publishes by priority. HIGH, NORMAL and LOW lanes are bounded queues
+ * drained strictly in that order, each behind its own token-bucket rate limit, by a
+ * single dispatcher thread. The dispatcher only takes a command off a lane once it has
+ * a free in-flight slot on the routine connection, so a full window never leaves it
+ * holding a lower-priority command while higher-priority ones queue up. EMERGENCY_STOP
+ * skips the queues and goes straight out on the dedicated emergency connection.
+ *
+ * A queued command can be withdrawn until the dispatcher claims it for publishing;
+ * withdrawn commands are skipped and never published.
+ */
+@Service
+public class CommandScheduler {
+
+    public enum Lane {
+        EMERGENCY, HIGH, NORMAL, LOW
+    }
+
+    @Autowired
+    private CommandPublisher commandPublisher;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // ControlCommandDto.priority at or above this goes to HIGH, at or below low-priority-max to LOW
+    @Value("${processor.commands.scheduler.high-priority-min:7}")
+    private int highPriorityMin;
+
+    @Value("${processor.commands.scheduler.low-priority-max:3}")
+    private int lowPriorityMax;
+
+    // Messages per second per lane
+    @Value("${processor.commands.scheduler.rate.high:5000}")
+    private double highRate;
+
+    @Value("${processor.commands.scheduler.rate.normal:1000}")
+    private double normalRate;
+
+    @Value("${processor.commands.scheduler.rate.low:200}")
+    private double lowRate;
+
+    @Value("${processor.commands.scheduler.queue-capacity:100000}")
+    private int queueCapacity;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final Lane[] lanes = Lane.values();
+
+    // Indexed by Lane.ordinal(); EMERGENCY entries are unused for queues and rates
+    private final ArrayDeque<Task>[] queues = newQueues();
+    private final double[] rates = new double[lanes.length];
+    private final double[] tokens = new double[lanes.length];
+    private final Timer[] waitTimers = new Timer[lanes.length];
+    private long lastRefillNanos;
+
+    private Thread dispatcher;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void initialize() {
+        rates[Lane.HIGH.ordinal()] = highRate;
+        rates[Lane.NORMAL.ordinal()] = normalRate;
+        rates[Lane.LOW.ordinal()] = lowRate;
+        for (Lane lane : lanes) {
+            tokens[lane.ordinal()] = rates[lane.ordinal()];
+            waitTimers[lane.ordinal()] = Timer.builder("command.queue.wait")
+                    .description("Time a command waited in its priority lane before publishing")
+                    .tag("lane", lane.name())
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .register(meterRegistry);
+            Gauge.builder("command.queue.depth", this, scheduler -> scheduler.getQueueDepth(lane))
+                    .tag("lane", lane.name())
+                    .register(meterRegistry);
+        }
+        lastRefillNanos = System.nanoTime();
+
+        running = true;
+        dispatcher = new Thread(this::runDispatcher, "command-scheduler");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        dispatcher.interrupt();
+    }
+
+    public Lane laneFor(ControlCommandDto command) {
+        if (command.getCommandType() == ControlCommandDto.CommandType.EMERGENCY_STOP) {
+            return Lane.EMERGENCY;
+        }
+        Integer priority = command.getPriority();
+        if (priority == null) return Lane.NORMAL;
+        if (priority >= highPriorityMin) return Lane.HIGH;
+        if (priority <= lowPriorityMax) return Lane.LOW;
+        return Lane.NORMAL;
+    }
+
+    public CompletableFuture<String> submit(Lane lane, String topic, byte[] payload) {
+        return submit(lane, topic, payload, null);
+    }
+
+    // Completes with the publish result, or REJECTED if the lane is full; onPublish runs just before the command goes out
+    public CompletableFuture<String> submit(Lane lane, String topic, byte[] payload, Runnable onPublish) {
+        if (lane == Lane.EMERGENCY) {
+            waitTimers[lane.ordinal()].record(0, TimeUnit.NANOSECONDS);
+            if (onPublish != null) onPublish.run();
+            return commandPublisher.publish(topic, payload, true);
+        }
+
+        Task task = new Task(topic, payload, System.nanoTime(), onPublish, new QueuedResult());
+        lock.lock();
+        try {
+            ArrayDeque<Task> queue = queues[lane.ordinal()];
+            if (queue.size() >= queueCapacity) {
+                task.result().complete(CommandDispatchService.REJECTED);
+                return task.result();
+            }
+            queue.addLast(task);
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+        return task.result();
+    }
+
+    // Cancels a command the dispatcher has not taken yet; false once it is being published or done
+    public boolean withdraw(CompletableFuture<String> result) {
+        return result instanceof QueuedResult queued && queued.cancel(false);
+    }
+
+    public int getQueueDepth(Lane lane) {
+        lock.lock();
+        try {
+            return queues[lane.ordinal()].size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void runDispatcher() {
+        while (running) {
+            Task task;
+            Lane lane;
+            lock.lock();
+            try {
+                refill();
+                lane = nextLane();
+                if (lane == null) {
+                    // Either idle or every non-empty lane is out of tokens
+                    available.await(isIdle() ? 100 : 1, TimeUnit.MILLISECONDS);
+                    continue;
+                }
+                if (!commandPublisher.tryReserveRoutine()) {
+                    // In-flight window is full; a completing publish signals, then lanes are picked again
+                    available.await(100, TimeUnit.MILLISECONDS);
+                    continue;
+                }
+                task = queues[lane.ordinal()].pollFirst();
+                if (!task.result().claim()) {
+                    // Cancelled after nextLane() looked at it
+                    commandPublisher.releaseReserved();
+                    continue;
+                }
+                tokens[lane.ordinal()] -= 1;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            waitTimers[lane.ordinal()].record(System.nanoTime() - task.enqueuedNanos(), TimeUnit.NANOSECONDS);
+            if (task.onPublish() != null) task.onPublish().run();
+            commandPublisher.publishReserved(task.topic(), task.payload())
+                    .whenComplete((result, ex) -> {
+                        task.result().complete(ex == null ? result : CommandDispatchService.FAILED);
+                        signalSlotFree();
+                    });
+        }
+    }
+
+    private void signalSlotFree() {
+        lock.lock();
+        try {
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Highest-priority lane with queued work and a token to spend; cancelled commands at the head are dropped
+    private Lane nextLane() {
+        for (Lane lane : lanes) {
+            if (lane == Lane.EMERGENCY) continue;
+            ArrayDeque<Task> queue = queues[lane.ordinal()];
+            while (!queue.isEmpty() && queue.peekFirst().result().isDone()) {
+                queue.pollFirst();
+            }
+            if (!queue.isEmpty() && tokens[lane.ordinal()] >= 1) {
+                return lane;
+            }
+        }
+        return null;
+    }
+
+    private boolean isIdle() {
+        for (ArrayDeque<Task> queue : queues) {
+            if (!queue.isEmpty()) return false;
+        }
+        return true;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        double elapsedSeconds = (now - lastRefillNanos) / 1_000_000_000.0;
+        lastRefillNanos = now;
+        for (int i = 0; i < tokens.length; i++) {
+            // Burst is capped at one second's worth of tokens
+            tokens[i] = Math.min(rates[i], tokens[i] + rates[i] * elapsedSeconds);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArrayDeque<Task>[] newQueues() {
+        ArrayDeque<Task>[] queues = new ArrayDeque[Lane.values().length];
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ArrayDeque<>();
+        }
+        return queues;
+    }
+
+    private record Task(String topic, byte[] payload, long enqueuedNanos, Runnable onPublish, QueuedResult result) {}
+
+    // Either the dispatcher claims the command or the caller cancels it, never both
+    private static final class QueuedResult extends CompletableFuture<String> {
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return claimed.compareAndSet(false, true) && super.cancel(mayInterruptIfRunning);
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.iot.deviceprocessor.service;
+
+import com.iot.common.config.KafkaTopics;
+import com.iot.common.dto.ControlCommandDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Correlates device responses with the commands sent to them and times out the ones
+ * that never answer. Outstanding commands live in parallel arrays addressed by an int
+ * handle, and are linked into a hashed timer wheel by deadline, so each tick only
+ * visits the entries in one bucket however many commands are outstanding. A command
+ * is tracked before it is queued for publishing, so a fast reply always finds it, and
+ * its timeout and latency restart from started() once it is actually published.
+ *
+ * Replies are read back from device.command.responses rather than taken from MQTT:
+ * with shared subscriptions a reply reaches only one replica, which need not be the
+ * one that sent the command, while every replica reads the whole topic.
+ */
+@Service
+public class CommandTracker {
+
+    private static final int NONE = -1;
+    private static final String TIMEOUT_STATUS = "timeout";
+    // Device-reported statuses are folded into these, so the latency timers stay bounded
+    private static final String SUCCESS_STATUS = "success";
+    private static final String ERROR_STATUS = "error";
+    private static final String OTHER_STATUS = "other";
+    private static final ControlCommandDto.CommandType[] COMMAND_TYPES = ControlCommandDto.CommandType.values();
+
+    @Autowired
+    private KafkaTemplate<String, Object> kafkaTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${processor.commands.default-timeout-seconds:30}")
+    private int defaultTimeoutSeconds;
+
+    @Value("${processor.commands.tick-ms:100}")
+    private long tickMillis;
+
+    @Value("${processor.commands.wheel-size:1024}")
+    private int wheelSize;
+
+    @Value("${processor.commands.max-outstanding:500000}")
+    private int maxOutstanding;
+
+    // Handle table, grown on demand; freed handles are chained through next[]
+    private String[] keys = new String[1024];
+    private String[] factoryIds = new String[1024];
+    private byte[] commandTypes = new byte[1024];
+    private long[] sentNanos = new long[1024];
+    private long[] deadlineTicks = new long[1024];
+    private long[] timeoutTicks = new long[1024];
+    private int[] next = new int[1024];
+    private int[] prev = new int[1024];
+    private int[] bucketOf = new int[1024];
+    private int capacity = 1024;
+    private int used;
+    private int freeHead = NONE;
+
+    private final Map<String, Integer> handles = new HashMap<>();
+    private int[] buckets;
+    private long startNanos;
+    private long currentTick;
+
+    private final Map<String, Timer> latencyTimers = new ConcurrentHashMap<>();
+    private Counter rejectedCounter;
+
+    @PostConstruct
+    public void initialize() {
+        buckets = new int[wheelSize];
+        Arrays.fill(buckets, NONE);
+        startNanos = System.nanoTime();
+
+        rejectedCounter = Counter.builder("command.tracking.rejected")
+                .description("Commands not tracked because max-outstanding was reached")
+                .register(meterRegistry);
+        Gauge.builder("command.outstanding", this, CommandTracker::getOutstandingCount)
+                .description("Commands waiting for a device response")
+                .register(meterRegistry);
+    }
+
+    public void track(ControlCommandDto command, String deviceId, String factoryId) {
+        int timeoutSeconds = command.getTimeoutSeconds() != null && command.getTimeoutSeconds() > 0
+                ? command.getTimeoutSeconds() : defaultTimeoutSeconds;
+        long timeoutTicks = Math.max(1, TimeUnit.SECONDS.toMillis(timeoutSeconds) / tickMillis);
+        String key = key(command.getCommandId(), deviceId);
+
+        synchronized (this) {
+            if (handles.containsKey(key)) return;
+            if (handles.size() >= maxOutstanding) {
+                rejectedCounter.increment();
+                return;
+            }
+
+            int handle = allocate();
+            keys[handle] = key;
+            factoryIds[handle] = factoryId;
+            commandTypes[handle] = (byte) command.getCommandType().ordinal();
+            sentNanos[handle] = System.nanoTime();
+            this.timeoutTicks[handle] = timeoutTicks;
+            deadlineTicks[handle] = currentTick + timeoutTicks;
+            link(handle, (int) ((currentTick + timeoutTicks) % wheelSize));
+            handles.put(key, handle);
+        }
+    }
+
+    // The command left the queue; time it from now rather than from when it was tracked
+    public synchronized void started(String commandId, String deviceId) {
+        Integer handle = handles.get(key(commandId, deviceId));
+        if (handle == null) return;
+        unlink(handle);
+        sentNanos[handle] = System.nanoTime();
+        deadlineTicks[handle] = currentTick + timeoutTicks[handle];
+        link(handle, (int) (deadlineTicks[handle] % wheelSize));
+    }
+
+    // Forget a command whose publish failed or was cancelled
+    public synchronized void cancel(String commandId, String deviceId) {
+        Integer handle = handles.remove(key(commandId, deviceId));
+        if (handle != null) {
+            release(handle);
+        }
+    }
+
+    // Broadcast: every replica reads every reply and completes the commands it sent
+    @KafkaListener(topics = KafkaTopics.DEVICE_COMMAND_RESPONSES,
+            groupId = "device-processor-commands-${random.uuid}",
+            properties = {
+                "spring.json.use.type.headers=false",
+                "spring.json.value.default.type=java.util.LinkedHashMap",
+                "auto.offset.reset=latest"
+            })
+    public void onCommandResponse(Map<String, Object> event) {
+        try {
+            Object deviceId = event.get("deviceId");
+            if (deviceId == null || !(event.get("response") instanceof Map<?, ?> response)) return;
+
+            // Our own commands are echoed on the control topic without a status; timeouts come from trackers
+            Object status = response.get("status");
+            Object commandId = response.get("commandId");
+            if (status == null || commandId == null || TIMEOUT_STATUS.equals(status)) return;
+            complete(commandId.toString(), deviceId.toString(), status.toString());
+        } catch (Exception e) {
+            System.err.println("Error handling command response: " + e.getMessage());
+        }
+    }
+
+    // Returns false if nothing was waiting for this response. Not counted: every replica reads
+    // every reply, so each one that did not send the command would count it as unmatched
+    public boolean complete(String commandId, String deviceId, String status) {
+        long latencyNanos;
+        String factoryId;
+        ControlCommandDto.CommandType commandType;
+
+        synchronized (this) {
+            Integer handle = handles.remove(key(commandId, deviceId));
+            if (handle == null) return false;
+            latencyNanos = System.nanoTime() - sentNanos[handle];
+            factoryId = factoryIds[handle];
+            commandType = COMMAND_TYPES[commandTypes[handle]];
+            release(handle);
+        }
+
+        latencyTimer(commandType, factoryId, statusTag(status))
+                .record(latencyNanos, TimeUnit.NANOSECONDS);
+        return true;
+    }
+
+    @Scheduled(fixedDelayString = "${processor.commands.tick-ms:100}")
+    public void advance() {
+        long targetTick = (System.nanoTime() - startNanos) / TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        List<Expired> expired = new ArrayList<>();
+
+        synchronized (this) {
+            while (currentTick < targetTick) {
+                currentTick++;
+                int handle = buckets[(int) (currentTick % wheelSize)];
+                while (handle != NONE) {
+                    int following = next[handle];
+                    // Entries further out than one revolution stay for a later round
+                    if (deadlineTicks[handle] <= currentTick) {
+                        handles.remove(keys[handle]);
+                        expired.add(new Expired(keys[handle], factoryIds[handle], COMMAND_TYPES[commandTypes[handle]]));
+                        release(handle);
+                    }
+                    handle = following;
+                }
+            }
+        }
+
+        for (Expired command : expired) {
+            onTimeout(command);
+        }
+    }
+
+    public synchronized int getOutstandingCount() {
+        return handles.size();
+    }
+
+    private void onTimeout(Expired command) {
+        int separator = command.key().indexOf('\u0000');
+        String commandId = command.key().substring(0, separator);
+        String deviceId = command.key().substring(separator + 1);
+
+        Counter.builder("command.timeouts")
+                .tag("commandType", command.commandType().name())
+                .tag("factory", command.factoryId() != null ? command.factoryId() : "unknown")
+                .register(meterRegistry)
+                .increment();
+
+        // Downstream consumers see a timeout the same way they see a device reply
+        Map<String, Object> response = new HashMap<>();
+        response.put("deviceId", deviceId);
+        response.put("response", Map.of(
+                "commandId", commandId,
+                "commandType", command.commandType().name(),
+                "status", TIMEOUT_STATUS));
+        response.put("timestamp", LocalDateTime.now());
+        try {
+            kafkaTemplate.send(KafkaTopics.DEVICE_COMMAND_RESPONSES, deviceId, response);
+        } catch (Exception e) {
+            System.err.println("Error publishing command timeout: " + e.getMessage());
+        }
+    }
+
+    private Timer latencyTimer(ControlCommandDto.CommandType commandType, String factoryId, String status) {
+        String factory = factoryId != null ? factoryId : "unknown";
+        return latencyTimers.computeIfAbsent(commandType.name() + '|' + factory + '|' + status,
+                key -> Timer.builder("command.ack.latency")
+                        .description("Time from publishing a command to the device response")
+                        .tag("commandType", commandType.name())
+                        .tag("factory", factory)
+                        .tag("status", status)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry));
+    }
+
+    private static String statusTag(String status) {
+        if (SUCCESS_STATUS.equalsIgnoreCase(status)) return SUCCESS_STATUS;
+        if (ERROR_STATUS.equalsIgnoreCase(status)) return ERROR_STATUS;
+        return OTHER_STATUS;
+    }
+
+    private static String key(String commandId, String deviceId) {
+        return commandId + '\u0000' + deviceId;
+    }
+
+    private int allocate() {
+        if (freeHead != NONE) {
+            int handle = freeHead;
+            freeHead = next[handle];
+            return handle;
+        }
+        if (used == capacity) {
+            grow();
+        }
+        return used++;
+    }
+
+    private void release(int handle) {
+        unlink(handle);
+        keys[handle] = null;
+        factoryIds[handle] = null;
+        next[handle] = freeHead;
+        freeHead = handle;
+    }
+
+    private void link(int handle, int bucket) {
+        bucketOf[handle] = bucket;
+        prev[handle] = NONE;
+        next[handle] = buckets[bucket];
+        if (buckets[bucket] != NONE) {
+            prev[buckets[bucket]] = handle;
+        }
+        buckets[bucket] = handle;
+    }
+
+    private void unlink(int handle) {
+        if (prev[handle] != NONE) {
+            next[prev[handle]] = next[handle];
+        } else {
+            buckets[bucketOf[handle]] = next[handle];
+        }
+        if (next[handle] != NONE) {
+            prev[next[handle]] = prev[handle];
+        }
+    }
+
+    private void grow() {
+        capacity *= 2;
+        keys = Arrays.copyOf(keys, capacity);
+        factoryIds = Arrays.copyOf(factoryIds, capacity);
+        commandTypes = Arrays.copyOf(commandTypes, capacity);
+        sentNanos = Arrays.copyOf(sentNanos, capacity);
+        deadlineTicks = Arrays.copyOf(deadlineTicks, capacity);
+        timeoutTicks = Arrays.copyOf(timeoutTicks, capacity);
+        next = Arrays.copyOf(next, capacity);
+        prev = Arrays.copyOf(prev, capacity);
+        bucketOf = Arrays.copyOf(bucketOf, capacity);
+    }
+
+    private record Expired(String key, String factoryId, ControlCommandDto.CommandType commandType) {}
+}
@@ -1,143 +1,222 @@
 package com.iot.deviceprocessor.service;
 
-import com.influxdb.client.InfluxDBClient;
-import com.influxdb.client.WriteApiBlocking;
 import com.influxdb.client.domain.WritePrecision;
 import com.influxdb.client.write.Point;
 import com.iot.common.config.KafkaTopics;
 import com.iot.common.dto.DeviceDataDto;
-import com.iot.deviceprocessor.config.InfluxDbConfig;
+import com.iot.deviceprocessor.monitoring.IngestMetrics;
+import com.iot.deviceprocessor.monitoring.IngestMetrics.Stage;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.ConsumerSeekAware;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
 @Service
-public class DeviceDataService {
+public class DeviceDataService implements ConsumerSeekAware {
     
-    @Autowired
-    private InfluxDBClient influxDBClient;
+    private static final Logger log = LoggerFactory.getLogger(DeviceDataService.class);
     
     @Autowired
-    private InfluxDbConfig influxDbConfig;
+    private InfluxWriteService influxWriteService;
     
     @Autowired
     private KafkaTemplate<String, Object> kafkaTemplate;
     
-    private WriteApiBlocking writeApi;
+    @Autowired
+    private ThresholdRuleEngine thresholdRuleEngine;
+    
+    @Autowired
+    private IngestMetrics ingestMetrics;
+    
+    @Autowired
+    private TelemetryFilterService telemetryFilter;
+    
+    @Autowired
+    private RollupService rollupService;
     
-    @KafkaListener(topics = KafkaTopics.DEVICE_DATA_RAW, groupId = "device-processor-group")
-    public void processDeviceData(DeviceDataDto deviceData) {
+    // device.data.raw is keyed by device, so each device is watched by the replica owning its partition
+    @Autowired
+    private LivenessMonitor livenessMonitor;
+    
+    @KafkaListener(topics = KafkaTopics.DEVICE_DATA_RAW, groupId = "device-processor-group",
+            autoStartup = "#{!${processor.kafka.batch-listener-enabled:true}}")
+    public void processDeviceData(DeviceDataDto deviceData, @Header(KafkaHeaders.RECEIVED_PARTITION) int partition) {
         try {
-            System.out.println("Processing device data for device: " + deviceData.getDeviceId());
+            livenessMonitor.touch(deviceData.getDeviceId(), partition);
             
-            // Store in InfluxDB
-            storeInTimeSeriesDB(deviceData);
+            if (log.isDebugEnabled() && ingestMetrics.shouldLogSample()) {
+                log.debug("Processing device data for device: {}", deviceData.getDeviceId());
+            }
             
-            // Publish processed data for analysis
-            kafkaTemplate.send(KafkaTopics.DEVICE_DATA_PROCESSED, deviceData.getDeviceId(), deviceData);
+            // Rollups and anomaly checks (basic threshold checking) see every sample
+            rollupService.accept(deviceData);
+            boolean anomaly = checkForAnomalies(deviceData);
             
-            // Check for anomalies (basic threshold checking)
-            checkForAnomalies(deviceData);
+            // Only significant changes are stored and forwarded; anomalies always are
+            List<DeviceDataDto> significant = new ArrayList<>(2);
+            telemetryFilter.select(deviceData, anomaly, significant);
+            for (DeviceDataDto sample : significant) {
+                storeInTimeSeriesDB(sample);
+                publishProcessed(sample);
+            }
             
         } catch (Exception e) {
-            System.err.println("Error processing device data: " + e.getMessage());
+            if (ingestMetrics.shouldLogSample()) {
+                log.error("Error processing device data: {}", e.getMessage());
+            }
         }
     }
     
-    private void storeInTimeSeriesDB(DeviceDataDto deviceData) {
+    @KafkaListener(topics = KafkaTopics.DEVICE_DATA_RAW, groupId = "device-processor-group",
+            containerFactory = "batchKafkaListenerContainerFactory",
+            autoStartup = "${processor.kafka.batch-listener-enabled:true}")
+    public void processDeviceDataBatch(List<DeviceDataDto> batch,
+                                       @Header(KafkaHeaders.RECEIVED_PARTITION) List<Integer> partitions) {
+        if (log.isDebugEnabled() && ingestMetrics.shouldLogSample()) {
+            log.debug("Processing batch of {} device data records", batch.size());
+        }
+        
+        // Rollups and anomaly checks see every sample; storage and forwarding only significant ones
+        List<DeviceDataDto> significant = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            DeviceDataDto deviceData = batch.get(i);
+            livenessMonitor.touch(deviceData.getDeviceId(), partitions.get(i));
+            rollupService.accept(deviceData);
+            telemetryFilter.select(deviceData, checkForAnomalies(deviceData), significant);
+        }
+        
+        // Store the whole poll as one hand-off to the InfluxDB writer
+        long start = System.nanoTime();
+        List<Point> points = new ArrayList<>(significant.size());
+        for (DeviceDataDto deviceData : significant) {
+            try {
+                points.add(createPoint(deviceData));
+            } catch (Exception e) {
+                if (ingestMetrics.shouldLogSample()) {
+                    log.warn("Error converting device data for device {}: {}", deviceData.getDeviceId(), e.getMessage());
+                }
+            }
+        }
         try {
-            if (writeApi == null) {
-                writeApi = influxDBClient.getWriteApiBlocking();
+            influxWriteService.writeAll(points);
+            ingestMetrics.record(Stage.INFLUX_WRITE, start);
+        } catch (Exception e) {
+            ingestMetrics.recordError(Stage.INFLUX_WRITE);
+            if (ingestMetrics.shouldLogSample()) {
+                log.error("Error storing batch in InfluxDB: {}", e.getMessage());
             }
-            
-            // Create a point for InfluxDB
-            Point point = Point.measurement("device_data")
-                    .addTag("device_id", deviceData.getDeviceId())
-                    .addTag("factory_id", deviceData.getFactoryId() != null ? deviceData.getFactoryId() : "unknown")
-                    .addTag("location", deviceData.getLocation() != null ? deviceData.getLocation() : "unknown")
-                    .time(Instant.now(), WritePrecision.MS);
-            
-            // Add all data fields as fields
-            if (deviceData.getData() != null) {
-                for (Map.Entry<String, Object> entry : deviceData.getData().entrySet()) {
-                    Object value = entry.getValue();
-                    if (value instanceof Number) {
-                        point.addField(entry.getKey(), (Number) value);
-                    } else if (value instanceof String) {
-                        point.addField(entry.getKey(), (String) value);
-                    } else if (value instanceof Boolean) {
-                        point.addField(entry.getKey(), (Boolean) value);
-                    }
+        }
+        
+        for (DeviceDataDto deviceData : significant) {
+            try {
+                publishProcessed(deviceData);
+            } catch (Exception e) {
+                if (ingestMetrics.shouldLogSample()) {
+                    log.error("Error publishing processed data: {}", e.getMessage());
                 }
             }
+        }
+    }
+    
+    // The replica taking over these partitions watches their devices from now on
+    @Override
+    public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+        List<Integer> released = new ArrayList<>(partitions.size());
+        for (TopicPartition partition : partitions) {
+            released.add(partition.partition());
+        }
+        livenessMonitor.release(released);
+    }
+
+    private void storeInTimeSeriesDB(DeviceDataDto deviceData) {
+        long start = System.nanoTime();
+        try {
+            // Hand off to the batching writer
+            influxWriteService.write(createPoint(deviceData));
+            ingestMetrics.record(Stage.INFLUX_WRITE, start);
             
-            // Add metadata fields
-            if (deviceData.getBatteryLevel() != null) {
-                point.addField("battery_level", deviceData.getBatteryLevel());
-            }
-            if (deviceData.getSignalStrength() != null) {
-                point.addField("signal_strength", deviceData.getSignalStrength());
-            }
-            if (deviceData.getMessageType() != null) {
-                point.addField("message_type", deviceData.getMessageType());
+        } catch (Exception e) {
+            ingestMetrics.recordError(Stage.INFLUX_WRITE);
+            if (ingestMetrics.shouldLogSample()) {
+                log.error("Error storing data in InfluxDB: {}", e.getMessage());
             }
-            
-            // Write to InfluxDB
-            writeApi.writePoint(influxDbConfig.getBucket(), influxDbConfig.getOrg(), point);
-            
-            System.out.println("Stored device data in InfluxDB for device: " + deviceData.getDeviceId());
-            
+        }
+    }
+    
+    private void publishProcessed(DeviceDataDto deviceData) {
+        long start = System.nanoTime();
+        try {
+            kafkaTemplate.send(KafkaTopics.DEVICE_DATA_PROCESSED, deviceData.getDeviceId(), deviceData)
+                    .whenComplete((result, ex) -> {
+                        if (ex != null) ingestMetrics.recordError(Stage.KAFKA_SEND);
+                    });
+            ingestMetrics.record(Stage.KAFKA_SEND, start);
         } catch (Exception e) {
-            System.err.println("Error storing data in InfluxDB: " + e.getMessage());
+            ingestMetrics.recordError(Stage.KAFKA_SEND);
+            throw e;
+        }
+    }
+    
+    private Point createPoint(DeviceDataDto deviceData) {
+        // Create a point for InfluxDB
+        Point point = Point.measurement("device_data")
+                .addTag("device_id", deviceData.getDeviceId())
+                .addTag("factory_id", deviceData.getFactoryId() != null ? deviceData.getFactoryId() : "unknown")
+                .addTag("location", deviceData.getLocation() != null ? deviceData.getLocation() : "unknown")
+                .time(Instant.now(), WritePrecision.MS);
+        
+        // Add all data fields as fields
+        if (deviceData.getData() != null) {
+            for (Map.Entry<String, Object> entry : deviceData.getData().entrySet()) {
+                Object value = entry.getValue();
+                if (value instanceof Number) {
+                    point.addField(entry.getKey(), (Number) value);
+                } else if (value instanceof String) {
+                    point.addField(entry.getKey(), (String) value);
+                } else if (value instanceof Boolean) {
+                    point.addField(entry.getKey(), (Boolean) value);
+                }
+            }
+        }
+        
+        // Add metadata fields
+        if (deviceData.getBatteryLevel() != null) {
+            point.addField("battery_level", deviceData.getBatteryLevel());
+        }
+        if (deviceData.getSignalStrength() != null) {
+            point.addField("signal_strength", deviceData.getSignalStrength());
+        }
+        if (deviceData.getMessageType() != null) {
+            point.addField("message_type", deviceData.getMessageType());
         }
+        
+        return point;
     }
     
-    private void checkForAnomalies(DeviceDataDto deviceData) {
+    // Returns true if an anomaly event was published for this sample
+    private boolean checkForAnomalies(DeviceDataDto deviceData) {
+        long start = System.nanoTime();
         try {
-            if (deviceData.getData() == null) return;
+            if (deviceData.getData() == null) return false;
             
             Map<String, Object> data = deviceData.getData();
-            boolean hasAnomaly = false;
+            String thresholdDetails = thresholdRuleEngine.evaluate(deviceData.getDeviceId(), data);
+            boolean hasAnomaly = thresholdDetails != null;
             StringBuilder anomalyDetails = new StringBuilder();
-            
-            // Check temperature anomalies
-            if (data.containsKey("temperature")) {
-                Object tempObj = data.get("temperature");
-                if (tempObj instanceof Number) {
-                    double temperature = ((Number) tempObj).doubleValue();
-                    if (temperature > 80.0 || temperature < -10.0) {
-                        hasAnomaly = true;
-                        anomalyDetails.append("Temperature anomaly: ").append(temperature).append("°C. ");
-                    }
-                }
-            }
-            
-            // Check pressure anomalies
-            if (data.containsKey("pressure")) {
-                Object pressureObj = data.get("pressure");
-                if (pressureObj instanceof Number) {
-                    double pressure = ((Number) pressureObj).doubleValue();
-                    if (pressure > 10.0 || pressure < 0.1) {
-                        hasAnomaly = true;
-                        anomalyDetails.append("Pressure anomaly: ").append(pressure).append(" bar. ");
-                    }
-                }
-            }
-            
-            // Check vibration anomalies
-            if (data.containsKey("vibration")) {
-                Object vibrationObj = data.get("vibration");
-                if (vibrationObj instanceof Number) {
-                    double vibration = ((Number) vibrationObj).doubleValue();
-                    if (vibration > 5.0) {
-                        hasAnomaly = true;
-                        anomalyDetails.append("Vibration anomaly: ").append(vibration).append(" g. ");
-                    }
-                }
+            if (hasAnomaly) {
+                anomalyDetails.append(thresholdDetails);
             }
             
             // Check battery level
@@ -166,11 +245,20 @@ public class DeviceDataService {
                 // Publish anomaly to Kafka
                 kafkaTemplate.send(KafkaTopics.DEVICE_ANOMALIES, deviceData.getDeviceId(), anomalyEvent);
                 
-                System.out.println("Anomaly detected for device " + deviceData.getDeviceId() + ": " + anomalyDetails);
+                ingestMetrics.anomalyDetected();
+                if (log.isInfoEnabled() && ingestMetrics.shouldLogSample()) {
+                    log.info("Anomaly detected for device {}: {}", deviceData.getDeviceId(), anomalyDetails);
+                }
             }
+            ingestMetrics.record(Stage.ANOMALY_CHECK, start);
+            return hasAnomaly;
             
         } catch (Exception e) {
-            System.err.println("Error checking for anomalies: " + e.getMessage());
+            ingestMetrics.recordError(Stage.ANOMALY_CHECK);
+            if (ingestMetrics.shouldLogSample()) {
+                log.error("Error checking for anomalies: {}", e.getMessage());
+            }
+            return false;
         }
     }
 }
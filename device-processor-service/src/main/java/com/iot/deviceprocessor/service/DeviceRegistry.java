@@ -0,0 +1,238 @@
+package com.iot.deviceprocessor.service;
+
+import com.iot.common.config.KafkaTopics;
+import com.iot.common.dto.DeviceDataDto;
+import com.iot.common.dto.DeviceDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+import jakarta.annotation.PostConstruct;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * In-memory copy of device metadata used to enrich telemetry without a remote call
+ * per message. Loaded from device-management at startup and on a refresh interval,
+ * and kept current in between from device.metadata.updates.
+ */
+@Service
+public class DeviceRegistry {
+
+    @Autowired
+    private RestTemplate restTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${processor.device-registry.url:http://device-management-service}")
+    private String deviceManagementUrl;
+
+    private final Map<String, DeviceMetadata> devices = new ConcurrentHashMap<>();
+
+    // Notified with the new metadata on every change, or with null-configuration metadata on removal
+    private final List<Consumer<DeviceMetadata>> changeListeners = new CopyOnWriteArrayList<>();
+
+    private volatile long lastUpdateMillis;
+    private volatile long lastRefreshMillis;
+
+    private Counter hitCounter;
+    private Counter missCounter;
+
+    @PostConstruct
+    public void initialize() {
+        hitCounter = Counter.builder("device.registry.lookups").tag("result", "hit").register(meterRegistry);
+        missCounter = Counter.builder("device.registry.lookups").tag("result", "miss").register(meterRegistry);
+        Gauge.builder("device.registry.size", devices, Map::size)
+                .description("Devices held in the local registry")
+                .register(meterRegistry);
+        Gauge.builder("device.registry.staleness", this, DeviceRegistry::getStalenessSeconds)
+                .description("Seconds since the registry last received any update")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+    }
+
+    // Runs after the listener containers have started, so no update is missed during the load
+    @EventListener(ApplicationReadyEvent.class)
+    public void bootstrap() {
+        refresh();
+    }
+
+    @Scheduled(initialDelayString = "${processor.device-registry.refresh-interval-ms:600000}",
+            fixedDelayString = "${processor.device-registry.refresh-interval-ms:600000}")
+    public void refresh() {
+        try {
+            DeviceDto[] snapshot = restTemplate.getForObject(deviceManagementUrl + "/devices", DeviceDto[].class);
+            if (snapshot == null) return;
+
+            for (DeviceDto device : snapshot) {
+                apply(DeviceMetadata.from(device));
+            }
+            lastRefreshMillis = System.currentTimeMillis();
+            lastUpdateMillis = lastRefreshMillis;
+            System.out.println("Device registry loaded " + snapshot.length + " devices from device-management");
+        } catch (Exception e) {
+            System.err.println("Error loading device registry: " + e.getMessage());
+        }
+    }
+
+    // Broadcast: every processor replica needs every update, hence a group per instance
+    @KafkaListener(topics = KafkaTopics.DEVICE_METADATA_UPDATES,
+            groupId = "device-processor-registry-${random.uuid}",
+            properties = {
+                "spring.json.use.type.headers=false",
+                "spring.json.value.default.type=java.util.LinkedHashMap",
+                "auto.offset.reset=latest"
+            })
+    public void onMetadataUpdate(Map<String, Object> update) {
+        try {
+            Object id = update.get("id");
+            if (id != null) {
+                apply(DeviceMetadata.from(update));
+            } else if (update.get("deviceId") != null) {
+                // Deletion events carry deviceId but no id
+                String deviceId = update.get("deviceId").toString();
+                if (devices.remove(deviceId) != null) {
+                    notifyListeners(DeviceMetadata.removed(deviceId));
+                }
+            }
+            lastUpdateMillis = System.currentTimeMillis();
+        } catch (Exception e) {
+            System.err.println("Error applying device metadata update: " + e.getMessage());
+        }
+    }
+
+    public DeviceMetadata get(String deviceId) {
+        DeviceMetadata metadata = devices.get(deviceId);
+        if (metadata != null) {
+            hitCounter.increment();
+        } else {
+            missCounter.increment();
+        }
+        return metadata;
+    }
+
+    // Fills factory and location when the device did not send them itself
+    public void enrich(DeviceDataDto deviceData) {
+        DeviceMetadata metadata = get(deviceData.getDeviceId());
+        if (metadata == null) return;
+
+        if (deviceData.getFactoryId() == null) {
+            deviceData.setFactoryId(metadata.factoryId());
+        }
+        if (deviceData.getLocation() == null) {
+            deviceData.setLocation(metadata.location());
+        }
+    }
+
+    public List<String> deviceIdsInFactory(String factoryId) {
+        List<String> deviceIds = new ArrayList<>();
+        for (DeviceMetadata metadata : devices.values()) {
+            if (factoryId.equals(metadata.factoryId())) {
+                deviceIds.add(metadata.deviceId());
+            }
+        }
+        return deviceIds;
+    }
+
+    public void addChangeListener(Consumer<DeviceMetadata> listener) {
+        changeListeners.add(listener);
+    }
+
+    public int size() {
+        return devices.size();
+    }
+
+    public double getHitRate() {
+        double hits = hitCounter.count();
+        double total = hits + missCounter.count();
+        return total == 0 ? 0.0 : hits / total;
+    }
+
+    public double getStalenessSeconds() {
+        long last = lastUpdateMillis;
+        return last == 0 ? -1 : (System.currentTimeMillis() - last) / 1000.0;
+    }
+
+    public long getLastRefreshMillis() {
+        return lastRefreshMillis;
+    }
+
+    // Keeps whichever version was updated last, so a slow snapshot cannot undo a newer event
+    private void apply(DeviceMetadata metadata) {
+        DeviceMetadata previous = devices.get(metadata.deviceId());
+        DeviceMetadata stored = devices.merge(metadata.deviceId(), metadata,
+                (current, incoming) -> incoming.updatedAtMillis() >= current.updatedAtMillis() ? incoming : current);
+        // Periodic refreshes re-apply unchanged metadata; only real changes reach listeners
+        if (stored == metadata && !metadata.equals(previous)) {
+            notifyListeners(metadata);
+        }
+    }
+
+    private void notifyListeners(DeviceMetadata metadata) {
+        for (Consumer<DeviceMetadata> listener : changeListeners) {
+            try {
+                listener.accept(metadata);
+            } catch (Exception e) {
+                System.err.println("Error notifying device registry listener: " + e.getMessage());
+            }
+        }
+    }
+
+    public record DeviceMetadata(String deviceId, String factoryId, String location,
+                                 Map<String, String> configuration, long updatedAtMillis) {
+
+        public boolean isRemoved() {
+            return configuration == null;
+        }
+
+        static DeviceMetadata removed(String deviceId) {
+            return new DeviceMetadata(deviceId, null, null, null, System.currentTimeMillis());
+        }
+
+        static DeviceMetadata from(DeviceDto device) {
+            return new DeviceMetadata(device.getId(), device.getFactoryId(), device.getLocation(),
+                    toStringMap(device.getConfiguration()), toMillis(device.getUpdatedAt()));
+        }
+
+        @SuppressWarnings("unchecked")
+        static DeviceMetadata from(Map<String, Object> device) {
+            Object configuration = device.get("configuration");
+            Object updatedAt = device.get("updatedAt");
+            return new DeviceMetadata(
+                    device.get("id").toString(),
+                    (String) device.get("factoryId"),
+                    (String) device.get("location"),
+                    configuration instanceof Map ? toStringMap((Map<String, Object>) configuration) : Map.of(),
+                    updatedAt != null ? toMillis(LocalDateTime.parse(updatedAt.toString())) : System.currentTimeMillis());
+        }
+
+        private static Map<String, String> toStringMap(Map<String, Object> source) {
+            if (source == null) return Map.of();
+            Map<String, String> result = new HashMap<>();
+            source.forEach((key, value) -> {
+                if (value != null) result.put(key, value.toString());
+            });
+            return Map.copyOf(result);
+        }
+
+        private static long toMillis(LocalDateTime timestamp) {
+            return timestamp == null ? 0 : timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        }
+    }
+}
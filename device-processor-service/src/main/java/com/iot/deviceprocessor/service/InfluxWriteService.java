@@ -0,0 +1,223 @@
+package com.iot.deviceprocessor.service;
+
+import com.influxdb.client.InfluxDBClient;
+import com.influxdb.client.WriteApiBlocking;
+import com.influxdb.client.write.Point;
+import com.iot.deviceprocessor.config.InfluxDbConfig;
+import com.iot.deviceprocessor.config.SchedulingConfig;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batches InfluxDB writes: points are flushed as one request every batch-size
+ * points or flush-interval-ms, with a bounded number of requests in flight.
+ * Set influxdb.write.batching-enabled=false to write each point synchronously.
+ * Batches that fail, or wait too long for a free writer, go to the write-ahead spool;
+ * batches InfluxDB rejects as invalid go to its dead-letter file instead.
+ */
+@Service
+public class InfluxWriteService {
+
+    @Autowired
+    private InfluxDBClient influxDBClient;
+
+    @Autowired
+    private InfluxDbConfig influxDbConfig;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private InfluxWriteSpool writeSpool;
+
+    @Value("${influxdb.write.batching-enabled:true}")
+    private boolean batchingEnabled;
+
+    @Value("${influxdb.write.batch-size:500}")
+    private int batchSize;
+
+    @Value("${influxdb.write.max-in-flight-batches:4}")
+    private int maxInFlightBatches;
+
+    // How long a full batch waits for a writer before it is spooled instead
+    @Value("${influxdb.write.backpressure-timeout-ms:5000}")
+    private long backpressureTimeoutMs;
+
+    private WriteApiBlocking writeApi;
+    private ExecutorService flushExecutor;
+    private Semaphore inFlightBatches;
+
+    private final Object bufferLock = new Object();
+    private List<Point> pendingPoints;
+
+    private Timer flushTimer;
+    private DistributionSummary batchSizeSummary;
+    private Counter writtenPoints;
+    private Counter failedPoints;
+
+    @PostConstruct
+    public void initialize() {
+        writeApi = influxDBClient.getWriteApiBlocking();
+        pendingPoints = new ArrayList<>(batchSize);
+        inFlightBatches = new Semaphore(maxInFlightBatches);
+        flushExecutor = Executors.newFixedThreadPool(maxInFlightBatches, runnable -> {
+            Thread thread = new Thread(runnable, "influx-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        flushTimer = Timer.builder("influxdb.write.flush")
+                .description("Latency of one InfluxDB write request")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        batchSizeSummary = DistributionSummary.builder("influxdb.write.batch.size")
+                .description("Points per InfluxDB write request")
+                .baseUnit("points")
+                .register(meterRegistry);
+        writtenPoints = Counter.builder("influxdb.write.points").tag("result", "success").register(meterRegistry);
+        failedPoints = Counter.builder("influxdb.write.points").tag("result", "failure").register(meterRegistry);
+        Gauge.builder("influxdb.write.pending", this, InfluxWriteService::getPendingPointCount)
+                .description("Points buffered and not yet handed to a writer")
+                .register(meterRegistry);
+        Gauge.builder("influxdb.write.in.flight", this, InfluxWriteService::getInFlightBatchCount)
+                .description("Batches currently being written")
+                .register(meterRegistry);
+    }
+
+    public void write(Point point) {
+        if (!batchingEnabled) {
+            writeBatch(List.of(point));
+            return;
+        }
+
+        List<Point> fullBatch = null;
+        synchronized (bufferLock) {
+            pendingPoints.add(point);
+            if (pendingPoints.size() >= batchSize) {
+                fullBatch = swapPending();
+            }
+        }
+        if (fullBatch != null) {
+            submit(fullBatch);
+        }
+    }
+
+    public void writeAll(List<Point> points) {
+        if (points.isEmpty()) return;
+        if (!batchingEnabled) {
+            writeBatch(points);
+            return;
+        }
+        for (Point point : points) {
+            write(point);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${influxdb.write.flush-interval-ms:1000}", scheduler = SchedulingConfig.INFLUX_SCHEDULER)
+    public void flush() {
+        if (!batchingEnabled) return;
+
+        List<Point> batch;
+        synchronized (bufferLock) {
+            if (pendingPoints.isEmpty()) return;
+            batch = swapPending();
+        }
+        submit(batch);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+        flushExecutor.shutdown();
+        try {
+            if (!flushExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+                System.err.println("Timed out waiting for pending InfluxDB writes");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getPendingPointCount() {
+        synchronized (bufferLock) {
+            return pendingPoints.size();
+        }
+    }
+
+    public int getInFlightBatchCount() {
+        return maxInFlightBatches - inFlightBatches.availablePermits();
+    }
+
+    private List<Point> swapPending() {
+        List<Point> batch = pendingPoints;
+        pendingPoints = new ArrayList<>(batchSize);
+        return batch;
+    }
+
+    private void submit(List<Point> batch) {
+        try {
+            if (!inFlightBatches.tryAcquire(backpressureTimeoutMs, TimeUnit.MILLISECONDS)) {
+                spool(batch);
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            spool(batch);
+            return;
+        }
+        try {
+            flushExecutor.execute(() -> {
+                try {
+                    writeBatch(batch);
+                } finally {
+                    inFlightBatches.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlightBatches.release();
+            System.err.println("Error scheduling InfluxDB write: " + e.getMessage());
+            spool(batch);
+        }
+    }
+
+    private void writeBatch(List<Point> batch) {
+        long start = System.nanoTime();
+        try {
+            writeApi.writePoints(influxDbConfig.getBucket(), influxDbConfig.getOrg(), batch);
+            writtenPoints.increment(batch.size());
+        } catch (Exception e) {
+            failedPoints.increment(batch.size());
+            System.err.println("Error writing " + batch.size() + " points to InfluxDB: " + e.getMessage());
+            if (InfluxWriteSpool.isRejected(e)) {
+                writeSpool.reject(batch);
+            } else {
+                spool(batch);
+            }
+        } finally {
+            flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            batchSizeSummary.record(batch.size());
+        }
+    }
+
+    private void spool(List<Point> batch) {
+        if (!writeSpool.append(batch)) {
+            System.err.println("Dropped " + batch.size() + " points: InfluxDB write spool unavailable or full");
+        }
+    }
+}
@@ -0,0 +1,461 @@
+package com.iot.deviceprocessor.service;
+
+import com.influxdb.client.InfluxDBClient;
+import com.influxdb.client.WriteApiBlocking;
+import com.influxdb.client.domain.WritePrecision;
+import com.influxdb.client.write.Point;
+import com.influxdb.exceptions.InfluxException;
+import com.iot.deviceprocessor.config.InfluxDbConfig;
+import com.iot.deviceprocessor.config.SchedulingConfig;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead spool for InfluxDB batches that failed or could not be written in time.
+ * Batches are appended as line protocol to memory-mapped segment files and replayed
+ * in order at a bounded rate once InfluxDB accepts writes again.
+ *
+ * Record layout: length (int), crc32 of the body (int), point count (int),
+ * precision (byte), then the UTF-8 line protocol. A zero length marks the end of
+ * a segment's data; on startup each segment is scanned and a torn or corrupt tail
+ * is discarded. The replay position is kept in a checkpoint file, so a crash can
+ * replay at most the batch being drained, which InfluxDB overwrites in place.
+ *
+ * Batches InfluxDB rejects outright (a 4xx other than timeout or throttling) would be
+ * rejected again on every retry, so they are never spooled; they are appended to a
+ * dead-letter file of line protocol instead, up to dead-letter-max-bytes.
+ *
+ * Each instance spools into its own subdirectory named after its instance id, so
+ * replicas can share one volume; the subdirectory is locked while in use.
+ */
+@Service
+public class InfluxWriteSpool {
+
+    private static final String SEGMENT_PREFIX = "spool-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final String DEAD_LETTER_FILE = "rejected.lp";
+    private static final String LOCK_FILE = "lock";
+    private static final int HEADER_BYTES = 13;
+    private static final WritePrecision[] PRECISIONS = WritePrecision.values();
+
+    @Autowired
+    private InfluxDBClient influxDBClient;
+
+    @Autowired
+    private InfluxDbConfig influxDbConfig;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${influxdb.spool.enabled:true}")
+    private boolean enabled;
+
+    @Value("${influxdb.spool.directory:spool}")
+    private String directory;
+
+    // Must stay the same across restarts for a replica to replay its own backlog
+    @Value("${influxdb.spool.instance-id:${mqtt.client.instance-id:}}")
+    private String instanceId;
+
+    @Value("${influxdb.spool.segment-bytes:67108864}")
+    private int segmentBytes;
+
+    // New batches are dropped once the backlog reaches this size
+    @Value("${influxdb.spool.max-bytes:1073741824}")
+    private long maxBytes;
+
+    @Value("${influxdb.spool.drain-batches-per-interval:20}")
+    private int drainBatchesPerInterval;
+
+    @Value("${influxdb.spool.dead-letter-max-bytes:67108864}")
+    private long deadLetterMaxBytes;
+
+    private Path spoolDir;
+    private WriteApiBlocking writeApi;
+    private FileChannel checkpointChannel;
+    private FileChannel lockChannel;
+
+    // Guarded by this
+    private long writeSegment;
+    private MappedByteBuffer writeBuffer;
+    private long readSegment;
+    private MappedByteBuffer readBuffer;
+    private long backlogBytes;
+    private long backlogPoints;
+
+    private volatile double drainRate;
+
+    private Counter spooledPoints;
+    private Counter replayedPoints;
+    private Counter droppedPoints;
+    private Counter rejectedPoints;
+
+    @PostConstruct
+    public void initialize() throws IOException {
+        spooledPoints = Counter.builder("influxdb.spool.points").tag("action", "spooled").register(meterRegistry);
+        replayedPoints = Counter.builder("influxdb.spool.points").tag("action", "replayed").register(meterRegistry);
+        droppedPoints = Counter.builder("influxdb.spool.points").tag("action", "dropped").register(meterRegistry);
+        rejectedPoints = Counter.builder("influxdb.spool.points").tag("action", "rejected").register(meterRegistry);
+        Gauge.builder("influxdb.spool.backlog.bytes", this, InfluxWriteSpool::getBacklogBytes)
+                .description("Spooled data not yet replayed to InfluxDB")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("influxdb.spool.backlog.points", this, InfluxWriteSpool::getBacklogPoints)
+                .description("Spooled points not yet replayed to InfluxDB")
+                .register(meterRegistry);
+        Gauge.builder("influxdb.spool.drain.rate", this, InfluxWriteSpool::getDrainRate)
+                .description("Points per second replayed during the last drain interval")
+                .register(meterRegistry);
+
+        if (!enabled) return;
+
+        writeApi = influxDBClient.getWriteApiBlocking();
+        spoolDir = Paths.get(directory, resolveInstanceId());
+        Files.createDirectories(spoolDir);
+        lockChannel = FileChannel.open(spoolDir.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (lockChannel.tryLock() == null) {
+            lockChannel.close();
+            enabled = false;
+            System.err.println("InfluxDB spool " + spoolDir + " is in use by another instance; spooling disabled");
+            return;
+        }
+        checkpointChannel = FileChannel.open(spoolDir.resolve(CHECKPOINT_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        recover();
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (!enabled) return;
+        try {
+            writeBuffer.force();
+            checkpointChannel.force(true);
+            checkpointChannel.close();
+            // Releases the lock
+            lockChannel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing InfluxDB spool: " + e.getMessage());
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // A rejected write fails the same way every time; anything else (5xx, timeouts, no connection) may succeed later
+    public static boolean isRejected(Exception e) {
+        if (!(e instanceof InfluxException influx)) return false;
+        int status = influx.status();
+        return status >= 400 && status < 500 && status != 408 && status != 429;
+    }
+
+    // Returns false if the batch could not be spooled and is lost
+    public boolean append(List<Point> batch) {
+        if (!enabled || batch.isEmpty()) return false;
+
+        byte[] body = toLineProtocol(batch).getBytes(StandardCharsets.UTF_8);
+        WritePrecision precision = batch.get(0).getPrecision();
+
+        synchronized (this) {
+            int recordBytes = HEADER_BYTES + body.length;
+            if (recordBytes + 4 > segmentBytes || backlogBytes + recordBytes > maxBytes) {
+                droppedPoints.increment(batch.size());
+                return false;
+            }
+            try {
+                if (writeBuffer.remaining() < recordBytes + 4) {
+                    rotate();
+                }
+            } catch (IOException e) {
+                droppedPoints.increment(batch.size());
+                System.err.println("Error rotating InfluxDB spool segment: " + e.getMessage());
+                return false;
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            int start = writeBuffer.position();
+            writeBuffer.position(start + 4);
+            writeBuffer.putInt((int) crc.getValue());
+            writeBuffer.putInt(batch.size());
+            writeBuffer.put((byte) precision.ordinal());
+            writeBuffer.put(body);
+            // Terminator for the scan on recovery, then publish the length last
+            writeBuffer.putInt(writeBuffer.position(), 0);
+            writeBuffer.putInt(start, body.length);
+
+            backlogBytes += recordBytes;
+            backlogPoints += batch.size();
+        }
+        spooledPoints.increment(batch.size());
+        return true;
+    }
+
+    public void reject(List<Point> batch) {
+        if (batch.isEmpty()) return;
+        reject(toLineProtocol(batch), batch.size());
+    }
+
+    // Counts the points and keeps them for inspection while the dead-letter file has room
+    private void reject(String lineProtocol, int pointCount) {
+        rejectedPoints.increment(pointCount);
+        if (!enabled) return;
+
+        Path file = spoolDir.resolve(DEAD_LETTER_FILE);
+        byte[] lines = (lineProtocol + "\n").getBytes(StandardCharsets.UTF_8);
+        synchronized (this) {
+            try {
+                if (Files.exists(file) && Files.size(file) + lines.length > deadLetterMaxBytes) return;
+                Files.write(file, lines, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                System.err.println("Error writing rejected InfluxDB points: " + e.getMessage());
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${influxdb.spool.drain-interval-ms:1000}", scheduler = SchedulingConfig.INFLUX_SCHEDULER)
+    public void drain() {
+        if (!enabled) return;
+
+        long start = System.nanoTime();
+        long replayed = 0;
+        for (int i = 0; i < drainBatchesPerInterval; i++) {
+            SpoolRecord record;
+            synchronized (this) {
+                record = peek();
+            }
+            if (record == null) break;
+
+            try {
+                writeApi.writeRecord(influxDbConfig.getBucket(), influxDbConfig.getOrg(), record.precision(),
+                        record.lineProtocol());
+            } catch (Exception e) {
+                if (!isRejected(e)) {
+                    // Still unavailable; keep the record and retry on the next interval
+                    break;
+                }
+                // Would block the spool forever; move past it
+                System.err.println("InfluxDB rejected " + record.pointCount() + " spooled points: " + e.getMessage());
+                synchronized (this) {
+                    commit(record);
+                }
+                reject(record.lineProtocol(), record.pointCount());
+                continue;
+            }
+
+            synchronized (this) {
+                commit(record);
+            }
+            replayedPoints.increment(record.pointCount());
+            replayed += record.pointCount();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        drainRate = replayed == 0 ? 0 : replayed / seconds;
+        if (replayed > 0) {
+            System.out.println("Replayed " + replayed + " spooled points to InfluxDB, backlog " + getBacklogPoints() + " points");
+        }
+    }
+
+    public synchronized long getBacklogBytes() {
+        return backlogBytes;
+    }
+
+    public synchronized long getBacklogPoints() {
+        return backlogPoints;
+    }
+
+    public double getDrainRate() {
+        return drainRate;
+    }
+
+    private String resolveInstanceId() {
+        if (!instanceId.isBlank()) return instanceId;
+        String hostname = System.getenv("HOSTNAME");
+        return hostname != null && !hostname.isBlank() ? hostname : "local";
+    }
+
+    private void recover() throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (Stream<Path> files = Files.list(spoolDir)) {
+            files.forEach(file -> {
+                String name = file.getFileName().toString();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    segments.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length())), file);
+                }
+            });
+        }
+
+        ByteBuffer checkpoint = ByteBuffer.allocate(16);
+        long checkpointSegment = segments.isEmpty() ? 0 : segments.firstKey();
+        int checkpointPosition = 0;
+        if (checkpointChannel.read(checkpoint, 0) == 16) {
+            checkpoint.flip();
+            checkpointSegment = checkpoint.getLong();
+            checkpointPosition = (int) checkpoint.getLong();
+        }
+
+        // Segments before the checkpoint were fully replayed before the last shutdown
+        for (Long segment : new ArrayList<>(segments.headMap(checkpointSegment).keySet())) {
+            Files.deleteIfExists(segments.remove(segment));
+        }
+
+        if (segments.isEmpty()) {
+            writeSegment = checkpointSegment;
+            writeBuffer = map(writeSegment);
+            readSegment = writeSegment;
+            readBuffer = map(readSegment);
+            readBuffer.position(writeBuffer.position());
+            writeCheckpoint();
+            return;
+        }
+
+        for (Long segment : segments.keySet()) {
+            MappedByteBuffer buffer = map(segment);
+            int from = segment == checkpointSegment ? checkpointPosition : 0;
+            int end = scanValidEnd(buffer, from);
+            buffer.position(from);
+            while (buffer.position() < end) {
+                int length = buffer.getInt();
+                buffer.position(buffer.position() + 4);
+                backlogPoints += buffer.getInt();
+                buffer.position(buffer.position() + 1 + length);
+                backlogBytes += HEADER_BYTES + length;
+            }
+            if (segment == segments.lastKey()) {
+                buffer.position(end);
+                writeSegment = segment;
+                writeBuffer = buffer;
+            }
+        }
+
+        readSegment = segments.firstKey();
+        readBuffer = map(readSegment);
+        readBuffer.position(readSegment == checkpointSegment ? checkpointPosition : 0);
+        System.out.println("Recovered InfluxDB spool with " + backlogPoints + " points in " + segments.size() + " segments from " + spoolDir);
+    }
+
+    // Returns the end of the last intact record and clears anything torn after it
+    private int scanValidEnd(MappedByteBuffer buffer, int from) {
+        int position = from;
+        while (position + HEADER_BYTES <= buffer.limit()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + HEADER_BYTES + length > buffer.limit()) break;
+
+            byte[] body = new byte[length];
+            buffer.get(position + HEADER_BYTES, body);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) break;
+
+            position += HEADER_BYTES + length;
+        }
+        if (position + 4 <= buffer.limit()) {
+            buffer.putInt(position, 0);
+        }
+        return position;
+    }
+
+    private SpoolRecord peek() {
+        while (true) {
+            int position = readBuffer.position();
+            int length = position + 4 <= readBuffer.limit() ? readBuffer.getInt(position) : 0;
+            if (length > 0) {
+                int pointCount = readBuffer.getInt(position + 8);
+                WritePrecision precision = PRECISIONS[readBuffer.get(position + 12)];
+                byte[] body = new byte[length];
+                readBuffer.get(position + HEADER_BYTES, body);
+                return new SpoolRecord(readSegment, position + HEADER_BYTES + length, pointCount, precision,
+                        new String(body, StandardCharsets.UTF_8));
+            }
+            if (readSegment == writeSegment) {
+                return null;
+            }
+
+            // Fully replayed a sealed segment
+            try {
+                Files.deleteIfExists(segmentPath(readSegment));
+                readSegment++;
+                readBuffer = map(readSegment);
+                readBuffer.position(0);
+                writeCheckpoint();
+            } catch (IOException e) {
+                System.err.println("Error advancing InfluxDB spool segment: " + e.getMessage());
+                return null;
+            }
+        }
+    }
+
+    private void commit(SpoolRecord record) {
+        if (record.segment() != readSegment) return;
+
+        backlogBytes -= record.nextPosition() - readBuffer.position();
+        backlogPoints -= record.pointCount();
+        readBuffer.position(record.nextPosition());
+        try {
+            writeCheckpoint();
+        } catch (IOException e) {
+            System.err.println("Error writing InfluxDB spool checkpoint: " + e.getMessage());
+        }
+    }
+
+    private void rotate() throws IOException {
+        writeBuffer.force();
+        writeSegment++;
+        writeBuffer = map(writeSegment);
+    }
+
+    private void writeCheckpoint() throws IOException {
+        ByteBuffer checkpoint = ByteBuffer.allocate(16);
+        checkpoint.putLong(readSegment).putLong(readBuffer.position()).flip();
+        checkpointChannel.write(checkpoint, 0);
+    }
+
+    private MappedByteBuffer map(long segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(segment),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+    }
+
+    private static String toLineProtocol(List<Point> batch) {
+        StringBuilder lines = new StringBuilder(batch.size() * 128);
+        for (Point point : batch) {
+            if (lines.length() > 0) lines.append('\n');
+            lines.append(point.toLineProtocol());
+        }
+        return lines.toString();
+    }
+
+    private Path segmentPath(long segment) {
+        return spoolDir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+
+    private record SpoolRecord(long segment, int nextPosition, int pointCount, WritePrecision precision,
+                               String lineProtocol) {}
+}
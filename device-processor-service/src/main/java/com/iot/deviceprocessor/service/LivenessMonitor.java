@@ -0,0 +1,324 @@
+package com.iot.deviceprocessor.service;
+
+import com.iot.common.config.KafkaTopics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Detects devices that go silent and publishes ONLINE/OFFLINE transitions to
+ * device.status.changes. Every device has a deadline in a three-level hierarchical
+ * timer wheel (256 slots per level). Messages only record the time they arrived; the
+ * deadline is re-armed lazily when its slot comes up, so a message costs one map
+ * lookup and a volatile write, and each tick touches only the devices due in it.
+ *
+ * Liveness is driven by device.data.raw, which is keyed by device, so across replicas
+ * of the consumer group exactly one replica watches each device and every transition
+ * is published once. MQTT delivery is not used: with shared subscriptions a replica
+ * sees only part of a device's messages. When a partition moves to another replica
+ * its devices are forgotten here without a transition, and the new owner starts
+ * watching them from their next sample.
+ */
+@Service
+public class LivenessMonitor {
+
+    public static final String ONLINE = "ONLINE";
+    public static final String OFFLINE = "OFFLINE";
+
+    private static final int LEVEL_BITS = 8;
+    private static final int SLOTS = 1 << LEVEL_BITS;
+    private static final int LEVELS = 3;
+    private static final long MAX_DELAY_TICKS = (1L << (LEVEL_BITS * LEVELS)) - 1;
+
+    @Autowired
+    private KafkaTemplate<String, Object> kafkaTemplate;
+
+    @Autowired
+    private DeviceRegistry deviceRegistry;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${processor.liveness.enabled:true}")
+    private boolean enabled;
+
+    @Value("${processor.liveness.tick-ms:1000}")
+    private long tickMillis;
+
+    // A device is offline after missing this many samples at its configured sampling_rate
+    @Value("${processor.liveness.missed-samples:3}")
+    private int missedSamples;
+
+    @Value("${processor.liveness.default-timeout-seconds:90}")
+    private int defaultTimeoutSeconds;
+
+    @Value("${processor.liveness.min-timeout-seconds:10}")
+    private int minTimeoutSeconds;
+
+    private final Map<String, Node> nodes = new ConcurrentHashMap<>();
+    private final Node[][] wheel = new Node[LEVELS][SLOTS];
+    private final AtomicInteger onlineCount = new AtomicInteger();
+    private long startNanos;
+    private long currentTick;
+
+    private Counter offlineCounter;
+    private Counter onlineCounter;
+
+    @PostConstruct
+    public void initialize() {
+        startNanos = System.nanoTime();
+        offlineCounter = Counter.builder("liveness.transitions").tag("to", OFFLINE).register(meterRegistry);
+        onlineCounter = Counter.builder("liveness.transitions").tag("to", ONLINE).register(meterRegistry);
+        Gauge.builder("liveness.devices", onlineCount, AtomicInteger::get).tag("state", "online").register(meterRegistry);
+        Gauge.builder("liveness.devices", this, monitor -> monitor.nodes.size() - monitor.onlineCount.get())
+                .tag("state", "offline")
+                .register(meterRegistry);
+        deviceRegistry.addChangeListener(this::onDeviceChanged);
+    }
+
+    // Called for every device.data.raw record, with the partition it was read from
+    public void touch(String deviceId, int partition) {
+        if (!enabled) return;
+
+        long now = System.nanoTime();
+        Node node = nodes.get(deviceId);
+        if (node != null) {
+            node.lastSeenNanos = now;
+            node.partition = partition;
+            if (node.online) return;
+        }
+
+        boolean cameBack;
+        synchronized (this) {
+            if (node == null) {
+                node = nodes.computeIfAbsent(deviceId, Node::new);
+                node.timeoutTicks = timeoutTicks(deviceId);
+            }
+            node.lastSeenNanos = now;
+            node.partition = partition;
+            if (node.online) return;
+            cameBack = node.everOnline;
+            node.online = true;
+            node.everOnline = true;
+            onlineCount.incrementAndGet();
+            schedule(node, tickOf(now) + node.timeoutTicks);
+        }
+        // The first message after startup is not a transition
+        if (cameBack) {
+            onlineCounter.increment();
+            publishTransition(deviceId, OFFLINE, ONLINE, now);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${processor.liveness.tick-ms:1000}")
+    public void advance() {
+        if (!enabled) return;
+
+        long targetTick = tickOf(System.nanoTime());
+        List<Node> expired = new ArrayList<>();
+        synchronized (this) {
+            while (currentTick < targetTick) {
+                currentTick++;
+                // Pull the next span down from the coarser levels before firing this slot
+                for (int level = LEVELS - 1; level > 0; level--) {
+                    if ((currentTick & ((1L << (LEVEL_BITS * level)) - 1)) == 0) {
+                        cascade(level, (int) ((currentTick >>> (LEVEL_BITS * level)) & (SLOTS - 1)));
+                    }
+                }
+
+                Node node = detach(0, (int) (currentTick & (SLOTS - 1)));
+                while (node != null) {
+                    Node following = node.next;
+                    node.next = null;
+                    node.prev = null;
+                    long deadline = tickOf(node.lastSeenNanos) + node.timeoutTicks;
+                    if (deadline <= currentTick) {
+                        node.online = false;
+                        node.level = -1;
+                        onlineCount.decrementAndGet();
+                        expired.add(node);
+                    } else {
+                        // Heard from since it was armed: re-arm from the latest message
+                        schedule(node, deadline);
+                    }
+                    node = following;
+                }
+            }
+        }
+
+        for (Node node : expired) {
+            offlineCounter.increment();
+            publishTransition(node.deviceId, ONLINE, OFFLINE, node.lastSeenNanos);
+        }
+    }
+
+    // Partitions taken over by another replica; their devices are now watched there
+    public void release(Collection<Integer> partitions) {
+        if (!enabled || partitions.isEmpty()) return;
+
+        synchronized (this) {
+            Iterator<Node> iterator = nodes.values().iterator();
+            while (iterator.hasNext()) {
+                Node node = iterator.next();
+                if (!partitions.contains(node.partition)) continue;
+                iterator.remove();
+                if (node.online) {
+                    unlink(node);
+                    onlineCount.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    public int getOnlineCount() {
+        return onlineCount.get();
+    }
+
+    public int getOfflineCount() {
+        return nodes.size() - onlineCount.get();
+    }
+
+    private void onDeviceChanged(DeviceRegistry.DeviceMetadata metadata) {
+        synchronized (this) {
+            if (metadata.isRemoved()) {
+                Node node = nodes.remove(metadata.deviceId());
+                if (node != null && node.online) {
+                    unlink(node);
+                    onlineCount.decrementAndGet();
+                }
+                return;
+            }
+            Node node = nodes.get(metadata.deviceId());
+            if (node != null) {
+                // Takes effect the next time the deadline is re-armed
+                node.timeoutTicks = timeoutTicks(metadata.deviceId());
+            }
+        }
+    }
+
+    private long timeoutTicks(String deviceId) {
+        long timeoutSeconds = defaultTimeoutSeconds;
+        DeviceRegistry.DeviceMetadata metadata = deviceRegistry.get(deviceId);
+        String samplingRate = metadata != null && metadata.configuration() != null
+                ? metadata.configuration().get("sampling_rate") : null;
+        if (samplingRate != null) {
+            try {
+                timeoutSeconds = Math.max(minTimeoutSeconds, (long) Math.ceil(Double.parseDouble(samplingRate) * missedSamples));
+            } catch (NumberFormatException e) {
+                System.err.println("Ignoring invalid sampling_rate for device " + deviceId + ": " + samplingRate);
+            }
+        }
+        return Math.max(1, TimeUnit.SECONDS.toMillis(timeoutSeconds) / tickMillis);
+    }
+
+    private long tickOf(long nanos) {
+        return (nanos - startNanos) / TimeUnit.MILLISECONDS.toNanos(tickMillis);
+    }
+
+    // Links the node into the level whose span covers the deadline
+    private void schedule(Node node, long deadline) {
+        deadline = Math.max(currentTick + 1, Math.min(deadline, currentTick + MAX_DELAY_TICKS));
+        long delay = deadline - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delay >= (1L << (LEVEL_BITS * (level + 1)))) {
+            level++;
+        }
+        int slot = (int) ((deadline >>> (LEVEL_BITS * level)) & (SLOTS - 1));
+
+        node.level = level;
+        node.slot = slot;
+        node.prev = null;
+        node.next = wheel[level][slot];
+        if (node.next != null) {
+            node.next.prev = node;
+        }
+        wheel[level][slot] = node;
+    }
+
+    private void cascade(int level, int slot) {
+        Node node = detach(level, slot);
+        while (node != null) {
+            Node following = node.next;
+            schedule(node, tickOf(node.lastSeenNanos) + node.timeoutTicks);
+            node = following;
+        }
+    }
+
+    private Node detach(int level, int slot) {
+        Node head = wheel[level][slot];
+        wheel[level][slot] = null;
+        return head;
+    }
+
+    private void unlink(Node node) {
+        if (node.level < 0) return;
+        if (node.prev != null) {
+            node.prev.next = node.next;
+        } else {
+            wheel[node.level][node.slot] = node.next;
+        }
+        if (node.next != null) {
+            node.next.prev = node.prev;
+        }
+        node.next = null;
+        node.prev = null;
+        node.level = -1;
+    }
+
+    private void publishTransition(String deviceId, String oldStatus, String newStatus, long lastSeenNanos) {
+        DeviceRegistry.DeviceMetadata metadata = deviceRegistry.get(deviceId);
+        long lastSeenMillis = System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastSeenNanos);
+
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("deviceId", deviceId);
+        event.put("factoryId", metadata != null && metadata.factoryId() != null ? metadata.factoryId() : "unknown");
+        event.put("oldStatus", oldStatus);
+        event.put("newStatus", newStatus);
+        event.put("reason", OFFLINE.equals(newStatus) ? "liveness_timeout" : "message_received");
+        event.put("lastSeen", LocalDateTime.ofInstant(Instant.ofEpochMilli(lastSeenMillis), ZoneId.systemDefault()));
+        event.put("timestamp", LocalDateTime.now());
+        try {
+            kafkaTemplate.send(KafkaTopics.DEVICE_STATUS_CHANGES, deviceId, event);
+        } catch (Exception e) {
+            System.err.println("Error publishing liveness transition for device " + deviceId + ": " + e.getMessage());
+        }
+    }
+
+    private static class Node {
+        final String deviceId;
+        volatile long lastSeenNanos;
+        volatile boolean online;
+        volatile long timeoutTicks;
+        volatile int partition;
+        boolean everOnline;
+
+        // Wheel position, guarded by the monitor's lock; level -1 when not scheduled
+        int level = -1;
+        int slot;
+        Node next;
+        Node prev;
+
+        Node(String deviceId) {
+            this.deviceId = deviceId;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.iot.deviceprocessor.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Drops QoS 1 redeliveries before they are processed a second time. Each device id
+ * hashes to a slot holding a small ring of recent message fingerprints; the table is
+ * sized once, so memory stays the same however many devices connect. Devices that
+ * share a slot also share its window, which only shortens how far back each can match.
+ */
+@Service
+public class MqttDeduplicator {
+    
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final int LOCK_STRIPES = 64;
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
+    
+    @Value("${mqtt.dedup.enabled:true}")
+    private boolean enabled;
+    
+    @Value("${mqtt.dedup.slots:16384}")
+    private int slotCount;
+    
+    @Value("${mqtt.dedup.window:8}")
+    private int window;
+    
+    // slotCount * window fingerprints; 0 marks an empty entry
+    private long[] fingerprints;
+    private int[] cursors;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    
+    private Counter duplicateCounter;
+    
+    @PostConstruct
+    public void initialize() {
+        slotCount = Math.max(1, slotCount);
+        window = Math.max(1, window);
+        fingerprints = new long[slotCount * window];
+        cursors = new int[slotCount];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        
+        duplicateCounter = Counter.builder("mqtt.ingest.duplicates")
+                .description("MQTT messages dropped as redeliveries")
+                .register(meterRegistry);
+    }
+    
+    // Records the message and returns true if the same topic and payload were seen recently
+    public boolean isDuplicate(String deviceId, String topic, byte[] payload) {
+        if (!enabled) return false;
+        
+        long fingerprint = fingerprint(topic, payload);
+        int slot = Math.floorMod(deviceId.hashCode(), slotCount);
+        int base = slot * window;
+        
+        synchronized (locks[slot % LOCK_STRIPES]) {
+            for (int i = base; i < base + window; i++) {
+                if (fingerprints[i] == fingerprint) {
+                    duplicateCounter.increment();
+                    return true;
+                }
+            }
+            fingerprints[base + cursors[slot]] = fingerprint;
+            cursors[slot] = (cursors[slot] + 1) % window;
+        }
+        return false;
+    }
+    
+    public double getDuplicateCount() {
+        return duplicateCounter.count();
+    }
+    
+    // FNV-1a over topic and payload; device payloads carry their own timestamp, so repeats are redeliveries
+    private static long fingerprint(String topic, byte[] payload) {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < topic.length(); i++) {
+            hash = (hash ^ topic.charAt(i)) * FNV_PRIME;
+        }
+        for (byte b : payload) {
+            hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+}
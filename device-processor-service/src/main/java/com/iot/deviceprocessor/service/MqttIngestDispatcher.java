@@ -0,0 +1,152 @@
+package com.iot.deviceprocessor.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves MQTT message handling off the Paho callback thread. Work is striped by
+ * device id onto single-threaded lanes with bounded queues, so messages from
+ * one device are still handled in arrival order.
+ */
+@Service
+public class MqttIngestDispatcher {
+
+    public enum OverflowPolicy {
+        BLOCK, DROP_OLDEST, REJECT
+    }
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${mqtt.ingest.stripes:4}")
+    private int stripeCount;
+
+    @Value("${mqtt.ingest.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${mqtt.ingest.overflow-policy:BLOCK}")
+    private OverflowPolicy overflowPolicy;
+
+    private Stripe[] stripes;
+    private volatile boolean running;
+
+    private Timer handoffTimer;
+    private Counter droppedCounter;
+    private Counter rejectedCounter;
+
+    @PostConstruct
+    public void initialize() {
+        handoffTimer = Timer.builder("mqtt.ingest.handoff")
+                .description("Time from MQTT callback to start of processing")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        droppedCounter = Counter.builder("mqtt.ingest.overflow").tag("action", "dropped").register(meterRegistry);
+        rejectedCounter = Counter.builder("mqtt.ingest.overflow").tag("action", "rejected").register(meterRegistry);
+        Gauge.builder("mqtt.ingest.queue.depth", this, MqttIngestDispatcher::getQueueDepth)
+                .description("Messages waiting for an ingest worker")
+                .register(meterRegistry);
+
+        running = true;
+        stripes = new Stripe[Math.max(1, stripeCount)];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(i, queueCapacity);
+            stripes[i].thread.start();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        for (Stripe stripe : stripes) {
+            try {
+                stripe.thread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // Returns false if the message was not accepted because of the overflow policy
+    public boolean dispatch(String key, Runnable work) {
+        Stripe stripe = stripes[Math.floorMod(key.hashCode(), stripes.length)];
+        Task task = new Task(work, System.nanoTime());
+
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    stripe.queue.put(task);
+                    return true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    rejectedCounter.increment();
+                    return false;
+                }
+            case DROP_OLDEST:
+                while (!stripe.queue.offer(task)) {
+                    if (stripe.queue.poll() != null) {
+                        droppedCounter.increment();
+                    }
+                }
+                return true;
+            default:
+                if (stripe.queue.offer(task)) {
+                    return true;
+                }
+                rejectedCounter.increment();
+                return false;
+        }
+    }
+
+    public int getQueueDepth() {
+        int depth = 0;
+        for (Stripe stripe : stripes) {
+            depth += stripe.queue.size();
+        }
+        return depth;
+    }
+
+    private void runStripe(Stripe stripe) {
+        while (running || !stripe.queue.isEmpty()) {
+            Task task;
+            try {
+                task = stripe.queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (task == null) continue;
+
+            handoffTimer.record(System.nanoTime() - task.enqueuedAt, TimeUnit.NANOSECONDS);
+            try {
+                task.work.run();
+            } catch (Exception e) {
+                System.err.println("Error in MQTT ingest worker: " + e.getMessage());
+            }
+        }
+    }
+
+    private record Task(Runnable work, long enqueuedAt) {}
+
+    private class Stripe {
+        final BlockingQueue<Task> queue;
+        final Thread thread;
+
+        Stripe(int index, int capacity) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.thread = new Thread(() -> runStripe(this), "mqtt-ingest-" + index);
+            this.thread.setDaemon(true);
+        }
+    }
+}
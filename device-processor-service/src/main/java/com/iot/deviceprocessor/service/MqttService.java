@@ -3,117 +3,277 @@ package com.iot.deviceprocessor.service;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.iot.common.config.KafkaTopics;
 import com.iot.common.dto.DeviceDataDto;
+import com.iot.deviceprocessor.codec.DeviceSample;
+import com.iot.deviceprocessor.codec.DeviceSampleDecoder;
+import com.iot.deviceprocessor.config.MqttConfig;
+import com.iot.deviceprocessor.monitoring.IngestMetrics;
+import com.iot.deviceprocessor.monitoring.IngestMetrics.Stage;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.eclipse.paho.client.mqttv3.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Service;
 
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @Service
 public class MqttService implements MqttCallback {
     
+    private static final Logger log = LoggerFactory.getLogger(MqttService.class);
+    
     @Autowired
     private MqttClient mqttClient;
     
     @Autowired
     private MqttConnectOptions mqttConnectOptions;
     
+    @Autowired
+    private MqttConfig mqttConfig;
+    
+    @Autowired
+    private MqttIngestDispatcher ingestDispatcher;
+    
+    @Autowired
+    private MqttDeduplicator deduplicator;
+    
+    @Autowired
+    private DeviceRegistry deviceRegistry;
+    
     @Autowired
     private KafkaTemplate<String, Object> kafkaTemplate;
     
     @Autowired
     private ObjectMapper objectMapper;
     
+    @Autowired
+    private IngestMetrics ingestMetrics;
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
+    
+    // Decode data payloads straight from bytes instead of via String and Map
+    @Value("${mqtt.ingest.streaming-decode-enabled:true}")
+    private boolean streamingDecodeEnabled;
+    
     private static final String DEVICE_DATA_TOPIC = "devices/+/data";
     private static final String DEVICE_STATUS_TOPIC = "devices/+/status";
     private static final String DEVICE_CONTROL_TOPIC = "devices/+/control";
     
+    // The first connection is the mqttClient bean; commands go out on their own connection
+    private final List<MqttClient> ingestClients = new ArrayList<>();
+    
+    // One reusable sample per ingest worker thread
+    private final ThreadLocal<DeviceSample> reusableSample = ThreadLocal.withInitial(DeviceSample::new);
+    private DeviceSampleDecoder sampleDecoder;
+    
     @PostConstruct
     public void initialize() {
-        try {
-            mqttClient.setCallback(this);
-            mqttClient.connect(mqttConnectOptions);
-            
-            // Subscribe to device data topics
-            mqttClient.subscribe(DEVICE_DATA_TOPIC, 1);
-            mqttClient.subscribe(DEVICE_STATUS_TOPIC, 1);
-            mqttClient.subscribe(DEVICE_CONTROL_TOPIC, 1);
-            
-            System.out.println("MQTT Client connected and subscribed to topics");
-        } catch (MqttException e) {
-            System.err.println("Failed to initialize MQTT client: " + e.getMessage());
+        sampleDecoder = new DeviceSampleDecoder(objectMapper.getFactory());
+        
+        ingestClients.add(mqttClient);
+        for (int i = 1; i < mqttConfig.getConnectionCount(); i++) {
+            try {
+                ingestClients.add(mqttConfig.createClient(i));
+            } catch (MqttException e) {
+                log.error("Failed to create MQTT connection {}: {}", i, e.getMessage());
+            }
+        }
+        
+        // With shared subscriptions the broker spreads messages across every connection of every replica
+        String[] topicFilters = {
+            mqttConfig.subscriptionFilter(DEVICE_DATA_TOPIC),
+            mqttConfig.subscriptionFilter(DEVICE_STATUS_TOPIC),
+            mqttConfig.subscriptionFilter(DEVICE_CONTROL_TOPIC)
+        };
+        int[] qos = {1, 1, 1};
+        
+        for (MqttClient client : ingestClients) {
+            try {
+                client.setCallback(this);
+                client.connect(mqttConnectOptions);
+                client.subscribe(topicFilters, qos);
+                
+                log.info("MQTT Client {} connected and subscribed to topics", client.getClientId());
+            } catch (MqttException e) {
+                log.error("Failed to initialize MQTT client {}: {}", client.getClientId(), e.getMessage());
+            }
         }
+        
+        Gauge.builder("mqtt.connections.connected", this, MqttService::getConnectedCount)
+                .description("MQTT ingest connections currently connected to the broker")
+                .register(meterRegistry);
     }
     
     @PreDestroy
     public void cleanup() {
-        try {
-            if (mqttClient.isConnected()) {
-                mqttClient.disconnect();
-                mqttClient.close();
+        for (MqttClient client : ingestClients) {
+            try {
+                if (client.isConnected()) {
+                    client.disconnect();
+                }
+                client.close();
+            } catch (MqttException e) {
+                log.warn("Error disconnecting MQTT client {}: {}", client.getClientId(), e.getMessage());
             }
-        } catch (MqttException e) {
-            System.err.println("Error disconnecting MQTT client: " + e.getMessage());
         }
     }
     
     @Override
     public void connectionLost(Throwable cause) {
-        System.err.println("MQTT connection lost: " + cause.getMessage());
+        log.warn("MQTT connection lost: {}", cause.getMessage());
         // Auto-reconnect is handled by MqttConnectOptions
     }
     
     @Override
     public void messageArrived(String topic, MqttMessage message) throws Exception {
+        long start = System.nanoTime();
         try {
-            String payload = new String(message.getPayload());
-            System.out.println("Received MQTT message from topic: " + topic + ", payload: " + payload);
-            
             // Extract device ID from topic (format: devices/{deviceId}/data)
-            String[] topicParts = topic.split("/");
-            if (topicParts.length >= 2) {
-                String deviceId = topicParts[1];
+            String deviceId = DeviceSampleDecoder.deviceIdFromTopic(topic);
+            if (deviceId != null) {
+                byte[] payload = message.getPayload();
                 
-                if (topic.endsWith("/data")) {
-                    processDeviceData(deviceId, payload);
-                } else if (topic.endsWith("/status")) {
-                    processDeviceStatus(deviceId, payload);
-                } else if (topic.endsWith("/control")) {
-                    processControlResponse(deviceId, payload);
+                // Clean sessions plus auto-reconnect make QoS 1 redeliveries common
+                if (deduplicator.isDuplicate(deviceId, topic, payload)) {
+                    return;
                 }
+                
+                // Keep the Paho callback thread free; per-device order is kept by the dispatcher
+                ingestMetrics.messageReceived();
+                ingestDispatcher.dispatch(deviceId, () -> routeMessage(topic, deviceId, payload));
+                ingestMetrics.record(Stage.MQTT_RECEIVE, start);
             }
         } catch (Exception e) {
-            System.err.println("Error processing MQTT message: " + e.getMessage());
+            ingestMetrics.recordError(Stage.MQTT_RECEIVE);
+            if (ingestMetrics.shouldLogSample()) {
+                log.error("Error processing MQTT message: {}", e.getMessage());
+            }
+        }
+    }
+    
+    private void routeMessage(String topic, String deviceId, byte[] payload) {
+        if (topic.endsWith("/data") && streamingDecodeEnabled) {
+            processDeviceData(deviceId, payload);
+            return;
+        }
+        
+        String payloadText = new String(payload);
+        if (log.isDebugEnabled() && ingestMetrics.shouldLogSample()) {
+            log.debug("Received MQTT message from topic: {}, payload: {}", topic, payloadText);
+        }
+        
+        if (topic.endsWith("/data")) {
+            processDeviceData(deviceId, payloadText);
+        } else if (topic.endsWith("/status")) {
+            processDeviceStatus(deviceId, payloadText);
+        } else if (topic.endsWith("/control")) {
+            processControlResponse(deviceId, payloadText);
         }
     }
     
     @Override
     public void deliveryComplete(IMqttDeliveryToken token) {
-        System.out.println("MQTT message delivery complete");
+        log.debug("MQTT message delivery complete");
+    }
+    
+    public boolean isConnected() {
+        return getConnectedCount() > 0;
+    }
+    
+    public int getConnectedCount() {
+        int connected = 0;
+        for (MqttClient client : ingestClients) {
+            if (client.isConnected()) connected++;
+        }
+        return connected;
+    }
+    
+    public int getConnectionCount() {
+        return ingestClients.size();
+    }
+    
+    private void processDeviceData(String deviceId, byte[] payload) {
+        DeviceDataDto deviceData;
+        try {
+            long start = System.nanoTime();
+            DeviceSample sample = reusableSample.get();
+            if (!sampleDecoder.decode(payload, sample)) {
+                ingestMetrics.recordError(Stage.DECODE);
+                if (ingestMetrics.shouldLogSample()) {
+                    log.warn("Ignoring non-object data payload from device {}", deviceId);
+                }
+                return;
+            }
+            
+            deviceData = sample.toDto(deviceId, LocalDateTime.now());
+            deviceRegistry.enrich(deviceData);
+            ingestMetrics.record(Stage.DECODE, start);
+        } catch (Exception e) {
+            ingestMetrics.recordError(Stage.DECODE);
+            if (ingestMetrics.shouldLogSample()) {
+                log.warn("Error decoding data from device {}: {}", deviceId, e.getMessage());
+            }
+            return;
+        }
+        
+        publishDeviceData(deviceId, deviceData);
     }
     
     private void processDeviceData(String deviceId, String payload) {
+        DeviceDataDto deviceData;
         try {
+            long start = System.nanoTime();
             // Parse the payload as JSON
             Map<String, Object> dataMap = objectMapper.readValue(payload, Map.class);
             
             // Create DeviceDataDto
-            DeviceDataDto deviceData = new DeviceDataDto();
+            deviceData = new DeviceDataDto();
             deviceData.setDeviceId(deviceId);
             deviceData.setTimestamp(LocalDateTime.now());
-            deviceData.setData(dataMap);
-            
+            // Same envelope handling as the streaming decoder, so both paths publish the same data
+            deviceData.setData(DeviceSampleDecoder.liftEnvelope(dataMap, deviceData));
+            deviceRegistry.enrich(deviceData);
+            ingestMetrics.record(Stage.DECODE, start);
+        } catch (Exception e) {
+            ingestMetrics.recordError(Stage.DECODE);
+            if (ingestMetrics.shouldLogSample()) {
+                log.warn("Error decoding data from device {}: {}", deviceId, e.getMessage());
+            }
+            return;
+        }
+        
+        publishDeviceData(deviceId, deviceData);
+    }
+    
+    private void publishDeviceData(String deviceId, DeviceDataDto deviceData) {
+        long start = System.nanoTime();
+        try {
             // Publish to Kafka for further processing
-            kafkaTemplate.send(KafkaTopics.DEVICE_DATA_RAW, deviceId, deviceData);
+            kafkaTemplate.send(KafkaTopics.DEVICE_DATA_RAW, deviceId, deviceData)
+                    .whenComplete((result, ex) -> {
+                        if (ex != null) ingestMetrics.recordError(Stage.KAFKA_SEND);
+                    });
             kafkaTemplate.send(KafkaTopics.MQTT_BRIDGE_DATA, deviceId, deviceData);
+            ingestMetrics.record(Stage.KAFKA_SEND, start);
             
+            if (log.isDebugEnabled() && ingestMetrics.shouldLogSample()) {
+                log.debug("Published data from device {} to Kafka", deviceId);
+            }
         } catch (Exception e) {
-            System.err.println("Error processing device data: " + e.getMessage());
+            ingestMetrics.recordError(Stage.KAFKA_SEND);
+            if (ingestMetrics.shouldLogSample()) {
+                log.error("Error publishing device data: {}", e.getMessage());
+            }
         }
     }
     
@@ -130,7 +290,9 @@ public class MqttService implements MqttCallback {
             kafkaTemplate.send(KafkaTopics.DEVICE_STATUS_CHANGES, deviceId, statusUpdate);
             
         } catch (Exception e) {
-            System.err.println("Error processing device status: " + e.getMessage());
+            if (ingestMetrics.shouldLogSample()) {
+                log.warn("Error processing device status: {}", e.getMessage());
+            }
         }
     }
     
@@ -138,7 +300,7 @@ public class MqttService implements MqttCallback {
         try {
             Map<String, Object> responseMap = objectMapper.readValue(payload, Map.class);
             
-            // Publish control response to Kafka
+            // Publish control response to Kafka; CommandTracker on every replica reads replies back from there
             Map<String, Object> controlResponse = new HashMap<>();
             controlResponse.put("deviceId", deviceId);
             controlResponse.put("response", responseMap);
@@ -147,37 +309,9 @@ public class MqttService implements MqttCallback {
             kafkaTemplate.send(KafkaTopics.DEVICE_COMMAND_RESPONSES, deviceId, controlResponse);
             
         } catch (Exception e) {
-            System.err.println("Error processing control response: " + e.getMessage());
-        }
-    }
-    
-    public void publishControlCommand(String deviceId, String command) {
-        try {
-            String topic = "devices/" + deviceId + "/control";
-            MqttMessage message = new MqttMessage(command.getBytes());
-            message.setQos(1);
-            message.setRetained(false);
-            
-            mqttClient.publish(topic, message);
-            System.out.println("Published control command to device " + deviceId + ": " + command);
-            
-        } catch (MqttException e) {
-            System.err.println("Error publishing control command: " + e.getMessage());
-        }
-    }
-    
-    public void publishBroadcastCommand(String command) {
-        try {
-            String topic = "devices/all/control";
-            MqttMessage message = new MqttMessage(command.getBytes());
-            message.setQos(1);
-            message.setRetained(false);
-            
-            mqttClient.publish(topic, message);
-            System.out.println("Published broadcast control command: " + command);
-            
-        } catch (MqttException e) {
-            System.err.println("Error publishing broadcast command: " + e.getMessage());
+            if (ingestMetrics.shouldLogSample()) {
+                log.warn("Error processing control response: {}", e.getMessage());
+            }
         }
     }
 }
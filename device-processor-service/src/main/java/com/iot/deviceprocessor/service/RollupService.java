@@ -0,0 +1,316 @@
+package com.iot.deviceprocessor.service;
+
+import com.influxdb.client.domain.WritePrecision;
+import com.influxdb.client.write.Point;
+import com.iot.common.config.KafkaTopics;
+import com.iot.common.dto.DeviceDataDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tumbling-window rollups per device and metric (count, min, max, sum, sum of squares,
+ * last), fed with every sample before deadband filtering. A window is emitted to the
+ * device_rollup_1m measurement and device.data.rollups once grace-period-ms has passed
+ * after its end; samples for a window that was already emitted are counted and dropped.
+ */
+@Service
+public class RollupService {
+
+    public static final String MEASUREMENT = "device_rollup_1m";
+
+    @Autowired
+    private InfluxWriteService influxWriteService;
+
+    @Autowired
+    private KafkaTemplate<String, Object> kafkaTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${processor.rollup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${processor.rollup.window-ms:60000}")
+    private long windowMillis;
+
+    // How long after a window ends late samples are still added to it
+    @Value("${processor.rollup.grace-period-ms:30000}")
+    private long gracePeriodMillis;
+
+    private final Map<String, DeviceWindows> devices = new ConcurrentHashMap<>();
+
+    private int slotCount;
+    private Counter emittedCounter;
+    private Counter lateCounter;
+
+    @PostConstruct
+    public void initialize() {
+        // Enough slots for every window that can still be open at once
+        slotCount = (int) (gracePeriodMillis / windowMillis) + 2;
+        emittedCounter = Counter.builder("processor.rollup.windows").tag("result", "emitted").register(meterRegistry);
+        lateCounter = Counter.builder("processor.rollup.samples").tag("result", "late").register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // Emit partial windows rather than lose them
+        closeWindows(Long.MAX_VALUE);
+    }
+
+    public void accept(DeviceDataDto deviceData) {
+        if (!enabled) return;
+
+        long timestampMillis = deviceData.getTimestamp() != null
+                ? deviceData.getTimestamp().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+                : System.currentTimeMillis();
+        DeviceWindows windows = devices.computeIfAbsent(deviceData.getDeviceId(), DeviceWindows::new);
+
+        List<Rollup> evicted;
+        synchronized (windows) {
+            windows.factoryId = deviceData.getFactoryId();
+            long windowStart = timestampMillis - Math.floorMod(timestampMillis, windowMillis);
+            if (windowStart <= windows.closedThrough) {
+                lateCounter.increment();
+                return;
+            }
+
+            int slot = windows.slotFor(windowStart);
+            if (windowStart < windows.windowStart[slot]) {
+                // Older than every window the slots can still hold
+                lateCounter.increment();
+                return;
+            }
+            evicted = windows.windowStart[slot] != windowStart ? windows.open(slot, windowStart) : null;
+
+            if (deviceData.getData() != null) {
+                for (Map.Entry<String, Object> entry : deviceData.getData().entrySet()) {
+                    if (entry.getValue() instanceof Number) {
+                        windows.add(slot, entry.getKey(), ((Number) entry.getValue()).doubleValue(), timestampMillis);
+                    }
+                }
+            }
+            if (deviceData.getBatteryLevel() != null) {
+                windows.add(slot, "battery_level", deviceData.getBatteryLevel(), timestampMillis);
+            }
+            if (deviceData.getSignalStrength() != null) {
+                windows.add(slot, "signal_strength", deviceData.getSignalStrength(), timestampMillis);
+            }
+        }
+        if (evicted != null) {
+            emit(evicted);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${processor.rollup.tick-ms:5000}")
+    public void closeExpiredWindows() {
+        if (!enabled) return;
+        closeWindows(System.currentTimeMillis() - gracePeriodMillis);
+    }
+
+    private void closeWindows(long windowsEndingBy) {
+        List<Rollup> closed = new ArrayList<>();
+        for (DeviceWindows windows : devices.values()) {
+            synchronized (windows) {
+                for (int slot = 0; slot < slotCount; slot++) {
+                    long start = windows.windowStart[slot];
+                    if (start != Long.MIN_VALUE && start + windowMillis <= windowsEndingBy) {
+                        closed.addAll(windows.close(slot));
+                    }
+                }
+            }
+        }
+        emit(closed);
+    }
+
+    private void emit(List<Rollup> rollups) {
+        if (rollups.isEmpty()) return;
+
+        List<Point> points = new ArrayList<>();
+        Map<String, Map<String, Object>> events = new HashMap<>();
+        for (Rollup rollup : rollups) {
+            points.add(Point.measurement(MEASUREMENT)
+                    .addTag("device_id", rollup.deviceId())
+                    .addTag("factory_id", rollup.factoryId() != null ? rollup.factoryId() : "unknown")
+                    .addTag("metric", rollup.metric())
+                    .addField("count", rollup.count())
+                    .addField("min", rollup.min())
+                    .addField("max", rollup.max())
+                    .addField("sum", rollup.sum())
+                    .addField("sum_sq", rollup.sumSquares())
+                    .addField("mean", rollup.sum() / rollup.count())
+                    .addField("last", rollup.last())
+                    .time(rollup.windowStart(), WritePrecision.MS));
+
+            // One Kafka event per device window, carrying every metric
+            Map<String, Object> event = events.computeIfAbsent(rollup.deviceId() + "@" + rollup.windowStart(), key -> {
+                Map<String, Object> created = new LinkedHashMap<>();
+                created.put("deviceId", rollup.deviceId());
+                created.put("factoryId", rollup.factoryId() != null ? rollup.factoryId() : "unknown");
+                created.put("windowStart", Instant.ofEpochMilli(rollup.windowStart()).toString());
+                created.put("windowEnd", Instant.ofEpochMilli(rollup.windowStart() + windowMillis).toString());
+                created.put("metrics", new LinkedHashMap<String, Object>());
+                return created;
+            });
+            @SuppressWarnings("unchecked")
+            Map<String, Object> metrics = (Map<String, Object>) event.get("metrics");
+            metrics.put(rollup.metric(), Map.of(
+                    "count", rollup.count(),
+                    "min", rollup.min(),
+                    "max", rollup.max(),
+                    "sum", rollup.sum(),
+                    "sumSquares", rollup.sumSquares(),
+                    "last", rollup.last()));
+        }
+
+        try {
+            influxWriteService.writeAll(points);
+        } catch (Exception e) {
+            System.err.println("Error storing rollups in InfluxDB: " + e.getMessage());
+        }
+        for (Map<String, Object> event : events.values()) {
+            try {
+                kafkaTemplate.send(KafkaTopics.DEVICE_DATA_ROLLUPS, (String) event.get("deviceId"), event);
+            } catch (Exception e) {
+                System.err.println("Error publishing rollup: " + e.getMessage());
+            }
+        }
+        emittedCounter.increment(events.size());
+    }
+
+    private record Rollup(String deviceId, String factoryId, String metric, long windowStart,
+                          long count, double min, double max, double sum, double sumSquares, double last) {}
+
+    /**
+     * Open windows for one device. Slot s holds windowStart[s]; per-metric statistics
+     * are stored at [s * metricCapacity + metric] in the primitive arrays.
+     */
+    private class DeviceWindows {
+        final String deviceId;
+        String factoryId;
+        long closedThrough = Long.MIN_VALUE;
+
+        final long[] windowStart = new long[slotCount];
+        String[] metrics = new String[8];
+        int metricCount;
+        int metricCapacity = 8;
+
+        long[] count = new long[slotCount * metricCapacity];
+        double[] min = new double[slotCount * metricCapacity];
+        double[] max = new double[slotCount * metricCapacity];
+        double[] sum = new double[slotCount * metricCapacity];
+        double[] sumSquares = new double[slotCount * metricCapacity];
+        double[] last = new double[slotCount * metricCapacity];
+        long[] lastTime = new long[slotCount * metricCapacity];
+
+        DeviceWindows(String deviceId) {
+            this.deviceId = deviceId;
+            Arrays.fill(windowStart, Long.MIN_VALUE);
+        }
+
+        int slotFor(long start) {
+            return (int) Math.floorMod(start / windowMillis, (long) slotCount);
+        }
+
+        // Returns the rollups of an older window still holding the slot
+        List<Rollup> open(int slot, long start) {
+            List<Rollup> evicted = windowStart[slot] != Long.MIN_VALUE ? close(slot) : null;
+            windowStart[slot] = start;
+            return evicted;
+        }
+
+        void add(int slot, String metric, double value, long timestampMillis) {
+            int index = slot * metricCapacity + metricIndex(metric);
+            if (count[index] == 0) {
+                min[index] = value;
+                max[index] = value;
+            } else {
+                if (value < min[index]) min[index] = value;
+                if (value > max[index]) max[index] = value;
+            }
+            count[index]++;
+            sum[index] += value;
+            sumSquares[index] += value * value;
+            // Late samples must not replace a newer last value
+            if (timestampMillis >= lastTime[index]) {
+                last[index] = value;
+                lastTime[index] = timestampMillis;
+            }
+        }
+
+        List<Rollup> close(int slot) {
+            List<Rollup> rollups = new ArrayList<>();
+            long start = windowStart[slot];
+            for (int m = 0; m < metricCount; m++) {
+                int index = slot * metricCapacity + m;
+                if (count[index] > 0) {
+                    rollups.add(new Rollup(deviceId, factoryId, metrics[m], start, count[index],
+                            min[index], max[index], sum[index], sumSquares[index], last[index]));
+                }
+                count[index] = 0;
+                sum[index] = 0;
+                sumSquares[index] = 0;
+                lastTime[index] = 0;
+            }
+            windowStart[slot] = Long.MIN_VALUE;
+            closedThrough = Math.max(closedThrough, start);
+            return rollups;
+        }
+
+        private int metricIndex(String metric) {
+            for (int m = 0; m < metricCount; m++) {
+                if (metrics[m] == metric || metrics[m].equals(metric)) return m;
+            }
+            if (metricCount == metricCapacity) {
+                grow();
+            }
+            metrics[metricCount] = metric;
+            return metricCount++;
+        }
+
+        private void grow() {
+            int capacity = metricCapacity * 2;
+            metrics = Arrays.copyOf(metrics, capacity);
+            count = regrow(count, capacity);
+            min = regrow(min, capacity);
+            max = regrow(max, capacity);
+            sum = regrow(sum, capacity);
+            sumSquares = regrow(sumSquares, capacity);
+            last = regrow(last, capacity);
+            lastTime = regrow(lastTime, capacity);
+            metricCapacity = capacity;
+        }
+
+        private long[] regrow(long[] values, int capacity) {
+            long[] grown = new long[slotCount * capacity];
+            for (int s = 0; s < slotCount; s++) {
+                System.arraycopy(values, s * metricCapacity, grown, s * capacity, metricCount);
+            }
+            return grown;
+        }
+
+        private double[] regrow(double[] values, int capacity) {
+            double[] grown = new double[slotCount * capacity];
+            for (int s = 0; s < slotCount; s++) {
+                System.arraycopy(values, s * metricCapacity, grown, s * capacity, metricCount);
+            }
+            return grown;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.iot.deviceprocessor.service;
+
+import com.iot.common.dto.DeviceDataDto;
+import com.iot.deviceprocessor.rules.DeadbandFilter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides which samples are stored in InfluxDB and forwarded to device.data.processed.
+ * Each device gets a DeadbandFilter from its device_configurations; a configuration
+ * change replaces the filter and so restarts its state. The last sample a device's
+ * filter suppressed is held, since a swinging-door filter may decide to store it once
+ * the next sample arrives.
+ */
+@Service
+public class TelemetryFilterService {
+    
+    @Autowired
+    private DeviceRegistry deviceRegistry;
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
+    
+    // Applies to devices without a deadband_mode entry
+    @Value("${processor.filter.default-mode:off}")
+    private String defaultMode;
+    
+    @Value("${processor.filter.default-deviation:0.5}")
+    private double defaultDeviation;
+    
+    // Compared against the deviation; other numeric fields never make a sample significant
+    @Value("${processor.filter.primary-metrics:temperature,pressure,vibration,position}")
+    private String[] primaryMetrics;
+    
+    @Value("${processor.filter.max-silence-seconds:300}")
+    private long maxSilenceSeconds;
+    
+    private final Map<String, DeviceFilter> filters = new ConcurrentHashMap<>();
+    
+    private DeadbandFilter.Mode fallbackMode;
+    private Set<String> defaultPrimaryMetrics;
+    private Counter forwardedCounter;
+    private Counter suppressedCounter;
+    
+    @PostConstruct
+    public void initialize() {
+        fallbackMode = DeadbandFilter.Mode.parse(defaultMode, DeadbandFilter.Mode.OFF);
+        defaultPrimaryMetrics = Set.of(primaryMetrics);
+        forwardedCounter = Counter.builder("processor.filter.samples").tag("result", "forwarded").register(meterRegistry);
+        suppressedCounter = Counter.builder("processor.filter.samples").tag("result", "suppressed").register(meterRegistry);
+        
+        deviceRegistry.addChangeListener(metadata -> {
+            if (metadata.isRemoved()) {
+                filters.remove(metadata.deviceId());
+            } else {
+                filters.put(metadata.deviceId(), createFilter(metadata.configuration()));
+            }
+        });
+    }
+    
+    // Adds the samples to store and forward to out, oldest first; force stores this one whatever the filter decides
+    public void select(DeviceDataDto deviceData, boolean force, List<DeviceDataDto> out) {
+        DeviceFilter filter = filters.computeIfAbsent(deviceData.getDeviceId(), deviceId -> {
+            DeviceRegistry.DeviceMetadata metadata = deviceRegistry.get(deviceId);
+            return createFilter(metadata != null ? metadata.configuration() : null);
+        });
+        
+        long timestampMillis = deviceData.getTimestamp() != null
+                ? deviceData.getTimestamp().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+                : System.currentTimeMillis();
+        
+        synchronized (filter) {
+            DeadbandFilter.Decision decision = filter.deadband.accept(deviceData.getData(), timestampMillis);
+            if (decision.storesPrevious() && filter.held != null) {
+                out.add(filter.held);
+                forwardedCounter.increment();
+            }
+            if (decision.storesCurrent() || force) {
+                out.add(deviceData);
+                forwardedCounter.increment();
+                filter.held = null;
+            } else {
+                suppressedCounter.increment();
+                filter.held = deviceData;
+            }
+        }
+    }
+    
+    public double getSuppressedCount() {
+        return suppressedCounter.count();
+    }
+    
+    private DeviceFilter createFilter(Map<String, String> configuration) {
+        return new DeviceFilter(DeadbandFilter.fromConfiguration(configuration, fallbackMode, defaultDeviation,
+                defaultPrimaryMetrics, maxSilenceSeconds * 1000));
+    }
+    
+    private static final class DeviceFilter {
+        final DeadbandFilter deadband;
+        // Last sample not stored; guarded by this
+        DeviceDataDto held;
+        
+        DeviceFilter(DeadbandFilter deadband) {
+            this.deadband = deadband;
+        }
+    }
+}
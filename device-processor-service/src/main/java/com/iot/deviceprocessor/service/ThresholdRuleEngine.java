@@ -0,0 +1,59 @@
+package com.iot.deviceprocessor.service;
+
+import com.iot.deviceprocessor.rules.ThresholdRules;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-device threshold rules compiled from device_configurations. Rules are rebuilt
+ * whenever the device registry sees a metadata change, so threshold edits in
+ * device-management take effect without a restart.
+ */
+@Service
+public class ThresholdRuleEngine {
+    
+    @Autowired
+    private DeviceRegistry deviceRegistry;
+    
+    private final Map<String, ThresholdRules> rulesByDevice = new ConcurrentHashMap<>();
+    
+    @PostConstruct
+    public void initialize() {
+        deviceRegistry.addChangeListener(this::onDeviceChanged);
+    }
+    
+    public ThresholdRules rulesFor(String deviceId) {
+        return rulesByDevice.getOrDefault(deviceId, ThresholdRules.DEFAULT);
+    }
+    
+    // Returns null when the sample is within limits, otherwise the anomaly details
+    public String evaluate(String deviceId, Map<String, Object> data) {
+        return rulesFor(deviceId).evaluate(data);
+    }
+    
+    public int getDeviceRuleCount() {
+        return rulesByDevice.size();
+    }
+    
+    private void onDeviceChanged(DeviceRegistry.DeviceMetadata metadata) {
+        if (metadata.isRemoved()) {
+            rulesByDevice.remove(metadata.deviceId());
+            return;
+        }
+        
+        if (ThresholdRules.hasUnscopedLimitsWithoutMetric(metadata.configuration())) {
+            System.err.println("Ignoring threshold_high/threshold_low for device " + metadata.deviceId()
+                    + ": set threshold_metric, or use threshold_high.<metric> / threshold_low.<metric>");
+        }
+        ThresholdRules rules = ThresholdRules.fromConfiguration(metadata.configuration());
+        if (rules == ThresholdRules.DEFAULT) {
+            rulesByDevice.remove(metadata.deviceId());
+        } else {
+            rulesByDevice.put(metadata.deviceId(), rules);
+        }
+    }
+}
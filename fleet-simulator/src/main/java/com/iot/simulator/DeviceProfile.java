@@ -0,0 +1,35 @@
+package com.iot.simulator;
+
+/**
+ * Device types and value ranges from mock-iot-devices/config.py.
+ */
+public enum DeviceProfile {
+    TEMPERATURE_SENSOR(25.0, -10, 80, 70, "°C", "temperature", "humidity", 30, 70),
+    PRESSURE_SENSOR(2.0, 0.1, 10.0, 8.0, "bar", "pressure", "flow_rate", 0, 100),
+    VIBRATION_MONITOR(0.5, 0.0, 5.0, 4.0, "g", "vibration", "frequency", 10, 1000),
+    CONTROL_VALVE(50, 0, 100, 90, "%", "position", "flow_rate", 0, 100);
+
+    final double baseValue;
+    final double min;
+    final double max;
+    final double anomalyThreshold;
+    final String unit;
+    // Type-specific fields: the primary reading and a secondary uniformly distributed one
+    final String primaryField;
+    final String secondaryField;
+    final double secondaryMin;
+    final double secondaryMax;
+
+    DeviceProfile(double baseValue, double min, double max, double anomalyThreshold, String unit,
+                  String primaryField, String secondaryField, double secondaryMin, double secondaryMax) {
+        this.baseValue = baseValue;
+        this.min = min;
+        this.max = max;
+        this.anomalyThreshold = anomalyThreshold;
+        this.unit = unit;
+        this.primaryField = primaryField;
+        this.secondaryField = secondaryField;
+        this.secondaryMin = secondaryMin;
+        this.secondaryMax = secondaryMax;
+    }
+}
@@ -0,0 +1,146 @@
+package com.iot.simulator;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Publishes the fleet's telemetry over a few multiplexed MQTT connections. Device i is
+ * owned by connection i % connections, and each connection is paced by one virtual
+ * thread that cycles through its devices at their combined rate. Publishes are
+ * pipelined up to max-inflight per connection; a full window blocks the pacer, so a
+ * broker that cannot keep up shows as a shortfall against the target rate.
+ */
+public class FleetPublisher {
+
+    private final SimulatorConfig config;
+    private final SimulatedFleet fleet;
+    private final List<MqttAsyncClient> clients = new ArrayList<>();
+    private final ExecutorService pacers = Executors.newVirtualThreadPerTaskExecutor();
+    private volatile boolean running;
+
+    final LongAdder published = new LongAdder();
+    final LongAdder acknowledged = new LongAdder();
+    final LongAdder failed = new LongAdder();
+    final LongAdder anomalies = new LongAdder();
+
+    public FleetPublisher(SimulatorConfig config, SimulatedFleet fleet) {
+        this.config = config;
+        this.fleet = fleet;
+    }
+
+    public void connect() throws MqttException {
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setCleanSession(true);
+        options.setAutomaticReconnect(true);
+        options.setKeepAliveInterval(60);
+        options.setMaxInflight(config.maxInflight());
+
+        long pid = ProcessHandle.current().pid();
+        for (int c = 0; c < config.connections(); c++) {
+            MqttAsyncClient client = new MqttAsyncClient(config.mqttBroker(),
+                    "fleet-simulator-" + pid + "-" + c, new MemoryPersistence());
+            client.connect(options).waitForCompletion(TimeUnit.SECONDS.toMillis(30));
+            clients.add(client);
+        }
+        System.out.println("Connected " + clients.size() + " MQTT connections to " + config.mqttBroker());
+    }
+
+    public void start() {
+        running = true;
+        for (int c = 0; c < clients.size(); c++) {
+            int connection = c;
+            pacers.submit(() -> pace(connection));
+        }
+    }
+
+    public void stop() {
+        running = false;
+        pacers.shutdown();
+        try {
+            pacers.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (MqttAsyncClient client : clients) {
+            try {
+                client.disconnect().waitForCompletion(TimeUnit.SECONDS.toMillis(10));
+                client.close();
+            } catch (MqttException e) {
+                System.err.println("Error disconnecting " + client.getClientId() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void pace(int connection) {
+        MqttAsyncClient client = clients.get(connection);
+        Semaphore inflight = new Semaphore(config.maxInflight());
+        int connections = clients.size();
+        int owned = (fleet.size() - connection + connections - 1) / connections;
+        double nanosPerMessage = 1_000_000_000.0 / (owned * config.messagesPerDevicePerSecond());
+        boolean[] anomaly = new boolean[1];
+
+        // Spread connections over the first interval instead of starting them in lockstep
+        long start = System.nanoTime() + (long) (nanosPerMessage * connection / connections);
+        long sent = 0;
+        int next = 0;
+
+        while (running) {
+            long due = start + (long) (sent * nanosPerMessage);
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+                continue;
+            }
+
+            int device = connection + next * connections;
+            next = next + 1 == owned ? 0 : next + 1;
+            sent++;
+
+            byte[] payload = fleet.nextPayload(device, anomaly);
+            if (anomaly[0]) anomalies.increment();
+
+            try {
+                inflight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            MqttMessage message = new MqttMessage(payload);
+            message.setQos(config.qos());
+            fleet.markSent(device, fleet.lastSequence(device), System.nanoTime());
+            try {
+                client.publish(fleet.topic(device), message, null, new IMqttActionListener() {
+                    @Override
+                    public void onSuccess(IMqttToken token) {
+                        inflight.release();
+                        acknowledged.increment();
+                    }
+
+                    @Override
+                    public void onFailure(IMqttToken token, Throwable exception) {
+                        inflight.release();
+                        failed.increment();
+                    }
+                });
+                published.increment();
+            } catch (MqttException e) {
+                inflight.release();
+                failed.increment();
+            }
+        }
+    }
+}
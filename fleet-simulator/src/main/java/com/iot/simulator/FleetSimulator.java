@@ -0,0 +1,140 @@
+package com.iot.simulator;
+
+import com.iot.common.config.KafkaTopics;
+import org.HdrHistogram.Histogram;
+import org.springframework.kafka.test.EmbeddedKafkaKraftBroker;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end ingest benchmark: simulates a device fleet over MQTT and reports the rate
+ * at which samples come out on device.data.processed, with publish-to-arrival latency
+ * percentiles. Run it against a local broker and a running device-processor-service:
+ *
+ * <pre>
+ * java -jar fleet-simulator/target/fleet-simulator.jar --devices=100000 --rate=0.2 --duration=120
+ * </pre>
+ *
+ * With --embedded-kafka a single-node Kafka is started on --embedded-kafka-port (9092 by
+ * default) for the processor to connect to, so only Mosquitto has to be running.
+ */
+public class FleetSimulator {
+
+    private static final String[] EMBEDDED_TOPICS = {
+            KafkaTopics.DEVICE_DATA_RAW,
+            KafkaTopics.DEVICE_DATA_PROCESSED,
+            KafkaTopics.DEVICE_DATA_ROLLUPS,
+            KafkaTopics.DEVICE_ANOMALIES,
+            KafkaTopics.DEVICE_COMMAND_RESPONSES,
+            KafkaTopics.DEVICE_METADATA_UPDATES,
+            KafkaTopics.DEVICE_STATUS_CHANGES,
+            KafkaTopics.MQTT_BRIDGE_DATA
+    };
+
+    public static void main(String[] args) throws Exception {
+        SimulatorConfig config = SimulatorConfig.parse(args);
+        System.out.println("Fleet simulator: " + config);
+
+        EmbeddedKafkaKraftBroker embeddedKafka = null;
+        String bootstrapServers = config.kafkaBootstrapServers();
+        if (config.embeddedKafka()) {
+            embeddedKafka = new EmbeddedKafkaKraftBroker(1, 12, EMBEDDED_TOPICS);
+            embeddedKafka.kafkaPorts(config.embeddedKafkaPort());
+            embeddedKafka.afterPropertiesSet();
+            bootstrapServers = embeddedKafka.getBrokersAsString();
+            System.out.println("Embedded Kafka listening on " + bootstrapServers);
+        }
+
+        SimulatedFleet fleet = new SimulatedFleet(config);
+        ProcessedDataProbe probe = new ProcessedDataProbe(bootstrapServers, fleet);
+        FleetPublisher publisher = new FleetPublisher(config, fleet);
+        try {
+            probe.subscribe();
+            Thread probeThread = new Thread(probe, "processed-data-probe");
+            probeThread.start();
+
+            publisher.connect();
+            publisher.start();
+            run(config, publisher, probe);
+
+            publisher.stop();
+            // Let in-flight samples drain through the pipeline before the final numbers
+            TimeUnit.SECONDS.sleep(config.reportIntervalSeconds());
+            probe.stop();
+            probeThread.join(TimeUnit.SECONDS.toMillis(10));
+        } finally {
+            if (embeddedKafka != null) {
+                embeddedKafka.destroy();
+            }
+        }
+    }
+
+    private static void run(SimulatorConfig config, FleetPublisher publisher, ProcessedDataProbe probe)
+            throws InterruptedException {
+        Histogram total = null;
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(config.warmupSeconds());
+        long end = start + TimeUnit.SECONDS.toNanos(config.durationSeconds());
+        long measuredPublished = 0;
+        long measuredReceived = 0;
+        long lastPublished = 0;
+        long lastReceived = 0;
+        long lastReport = start;
+
+        System.out.printf("%8s %12s %12s %10s %10s %10s %10s %10s%n",
+                "elapsed", "published/s", "processed/s", "p50 ms", "p95 ms", "p99 ms", "p99.9 ms", "max ms");
+        while (System.nanoTime() < end) {
+            TimeUnit.SECONDS.sleep(config.reportIntervalSeconds());
+            long now = System.nanoTime();
+            double seconds = (now - lastReport) / 1e9;
+            long published = publisher.published.sum();
+            long received = probe.received.sum();
+            Histogram interval = probe.intervalHistogram();
+
+            System.out.printf("%7ds %12.0f %12.0f %10s %10s %10s %10s %10s%s%n",
+                    TimeUnit.NANOSECONDS.toSeconds(now - start),
+                    (published - lastPublished) / seconds,
+                    (received - lastReceived) / seconds,
+                    millis(interval, 50), millis(interval, 95), millis(interval, 99), millis(interval, 99.9),
+                    interval.getTotalCount() > 0 ? String.format("%.1f", interval.getMaxValue() / 1e6) : "-",
+                    now < measureFrom ? "  (warm-up)" : "");
+
+            if (now >= measureFrom) {
+                if (total == null) {
+                    total = interval.copy();
+                } else {
+                    total.add(interval);
+                }
+                measuredPublished += published - lastPublished;
+                measuredReceived += received - lastReceived;
+            }
+            lastPublished = published;
+            lastReceived = received;
+            lastReport = now;
+        }
+
+        double measuredSeconds = (lastReport - measureFrom) / 1e9;
+        System.out.println();
+        System.out.println("Summary after warm-up (" + Math.round(measuredSeconds) + "s)");
+        System.out.printf("  target rate          %12.0f msg/s%n", config.targetMessagesPerSecond());
+        System.out.printf("  published            %12.0f msg/s%n", measuredPublished / measuredSeconds);
+        System.out.printf("  processed            %12.0f msg/s (%.1f%% of published)%n",
+                measuredReceived / measuredSeconds,
+                measuredPublished > 0 ? 100.0 * measuredReceived / measuredPublished : 0);
+        System.out.printf("  publish failures     %12d%n", publisher.failed.sum());
+        System.out.printf("  anomalies injected   %12d%n", publisher.anomalies.sum());
+        System.out.printf("  unmatched records    %12d%n", probe.unmatched.sum());
+        if (total != null && total.getTotalCount() > 0) {
+            System.out.printf("  latency ms           p50 %s  p90 %s  p95 %s  p99 %s  p99.9 %s  max %.1f%n",
+                    millis(total, 50), millis(total, 90), millis(total, 95), millis(total, 99), millis(total, 99.9),
+                    total.getMaxValue() / 1e6);
+        }
+        // The processor drops samples inside a device's deadband, so processed can be below published
+        System.out.println("  (samples filtered by processor.filter deadbands never reach device.data.processed)");
+    }
+
+    private static String millis(Histogram histogram, double percentile) {
+        if (histogram.getTotalCount() == 0) return "-";
+        return String.format("%.1f", histogram.getValueAtPercentile(percentile) / 1e6);
+    }
+}
@@ -0,0 +1,118 @@
+package com.iot.simulator;
+
+import com.iot.common.config.KafkaTopics;
+import com.iot.common.dto.DeviceDataDto;
+import com.iot.common.kafka.CompactDeserializer;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.StringDeserializer;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Consumes device.data.processed and records, for every record from a simulated
+ * device, the time since its MQTT message was published. Latency is measured with the
+ * simulator's own clock, so the processor's clock and timestamps do not matter.
+ */
+public class ProcessedDataProbe implements Runnable {
+
+    // Latencies above this are clamped; they only happen when the pipeline is badly behind
+    private static final long MAX_TRACKED_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    private final SimulatedFleet fleet;
+    private final KafkaConsumer<String, Object> consumer;
+    private final Recorder recorder = new Recorder(MAX_TRACKED_NANOS, 3);
+    private volatile boolean running = true;
+
+    final LongAdder received = new LongAdder();
+    // Records without a sequence, or whose publish time was already overwritten in the send history
+    final LongAdder unmatched = new LongAdder();
+
+    public ProcessedDataProbe(String bootstrapServers, SimulatedFleet fleet) {
+        this.fleet = fleet;
+
+        Properties props = new Properties();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ConsumerConfig.GROUP_ID_CONFIG, "fleet-simulator-" + UUID.randomUUID());
+        props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "latest");
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, 5000);
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, CompactDeserializer.class);
+        props.put("spring.json.trusted.packages", "*");
+        props.put("spring.json.value.default.type", DeviceDataDto.class.getName());
+        consumer = new KafkaConsumer<>(props);
+    }
+
+    // Blocks until partitions are assigned, so nothing published afterwards is missed
+    public void subscribe() {
+        consumer.subscribe(List.of(KafkaTopics.DEVICE_DATA_PROCESSED));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        while (consumer.assignment().isEmpty()) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("No partitions of " + KafkaTopics.DEVICE_DATA_PROCESSED + " assigned after 60s");
+            }
+            consumer.poll(Duration.ofMillis(200));
+        }
+        consumer.seekToEnd(consumer.assignment());
+        // seekToEnd is lazy; resolve the positions before publishing starts
+        consumer.assignment().forEach(consumer::position);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                ConsumerRecords<String, Object> records = consumer.poll(Duration.ofMillis(100));
+                long now = System.nanoTime();
+                for (ConsumerRecord<String, Object> record : records) {
+                    if (record.value() instanceof DeviceDataDto deviceData) {
+                        accept(deviceData, now);
+                    }
+                }
+            }
+        } catch (WakeupException e) {
+            // Shutdown
+        } finally {
+            consumer.close();
+        }
+    }
+
+    public void stop() {
+        running = false;
+        consumer.wakeup();
+    }
+
+    // Latencies recorded since the previous call
+    public Histogram intervalHistogram() {
+        return recorder.getIntervalHistogram();
+    }
+
+    private void accept(DeviceDataDto deviceData, long now) {
+        int device = fleet.indexOf(deviceData.getDeviceId());
+        if (device < 0) return;
+
+        Long sequence = deviceData.getSequence();
+        if (sequence == null) {
+            unmatched.increment();
+            return;
+        }
+        long sentNanos = fleet.sentNanos(device, sequence.intValue());
+        if (sentNanos < 0) {
+            unmatched.increment();
+            return;
+        }
+        received.increment();
+        recorder.recordValue(Math.min(MAX_TRACKED_NANOS, Math.max(0, now - sentNanos)));
+    }
+}
@@ -0,0 +1,149 @@
+package com.iot.simulator;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * State of every simulated device, kept in arrays indexed by device number rather than
+ * one object per device, and the sensor_data payloads they publish. Payloads follow
+ * MockIoTDevice.generate_sensor_data, plus a per-device "sequence" field that lets the
+ * probe match a processed record to the time its message was published. It sits next
+ * to "data" rather than in it, so the processor carries it as the record's sequence
+ * instead of storing and analysing it as a metric.
+ */
+public class SimulatedFleet {
+
+    // Publish times remembered per device; older ones are overwritten
+    static final int SEND_HISTORY = 16;
+
+    private static final DeviceProfile[] PROFILES = DeviceProfile.values();
+    private static final double BATTERY_DRAIN_PER_MESSAGE = 0.1 / 3600;
+
+    private final String deviceIdPrefix;
+    private final double anomalyProbability;
+    private final String[] deviceIds;
+    private final String[] topics;
+    private final String[] factoryIds;
+    private final byte[] profiles;
+    private final double[] batteryLevels;
+    private final int[] anomalyCounts;
+    private final int[] sequences;
+
+    private final AtomicLongArray sentNanos;
+    private final AtomicIntegerArray sentSequences;
+
+    public SimulatedFleet(SimulatorConfig config) {
+        int devices = config.devices();
+        deviceIdPrefix = config.deviceIdPrefix();
+        anomalyProbability = config.anomalyProbability();
+        deviceIds = new String[devices];
+        topics = new String[devices];
+        factoryIds = new String[config.factories()];
+        profiles = new byte[devices];
+        batteryLevels = new double[devices];
+        anomalyCounts = new int[devices];
+        sequences = new int[devices];
+        sentNanos = new AtomicLongArray(devices * SEND_HISTORY);
+        sentSequences = new AtomicIntegerArray(devices * SEND_HISTORY);
+
+        for (int f = 0; f < factoryIds.length; f++) {
+            factoryIds[f] = String.format("factory-%03d", f + 1);
+        }
+        for (int i = 0; i < devices; i++) {
+            deviceIds[i] = deviceIdPrefix + String.format("%06d", i);
+            topics[i] = "devices/" + deviceIds[i] + "/data";
+            profiles[i] = (byte) (i % PROFILES.length);
+            batteryLevels[i] = 100.0;
+        }
+    }
+
+    public int size() {
+        return deviceIds.length;
+    }
+
+    public String topic(int device) {
+        return topics[device];
+    }
+
+    // Only called by the thread that owns the device
+    public byte[] nextPayload(int device, boolean[] anomaly) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        DeviceProfile profile = PROFILES[profiles[device]];
+        int sequence = ++sequences[device];
+
+        double value = profile.baseValue + random.nextDouble(-2, 2) + random.nextDouble(-0.1, 0.1);
+        value = Math.max(profile.min, Math.min(profile.max, value));
+
+        anomaly[0] = random.nextDouble() < anomalyProbability;
+        if (anomaly[0]) {
+            anomalyCounts[device]++;
+            // Same (lopsided) rule as the Python devices, including the negative lower bound
+            value = value > profile.anomalyThreshold
+                    ? uniform(random, profile.anomalyThreshold, profile.max)
+                    : uniform(random, profile.min, -profile.anomalyThreshold);
+        }
+
+        batteryLevels[device] = Math.max(0, batteryLevels[device] - BATTERY_DRAIN_PER_MESSAGE);
+        int signalStrength = (int) random.nextDouble(-80, -30);
+
+        StringBuilder json = new StringBuilder(384);
+        json.append("{\"deviceId\":\"").append(deviceIds[device])
+                .append("\",\"timestamp\":\"").append(LocalDateTime.now())
+                .append("\",\"factoryId\":\"").append(factoryIds[device % factoryIds.length])
+                .append("\",\"location\":\"Production Line A\",\"messageType\":\"sensor_data\",\"batteryLevel\":")
+                .append(round2(batteryLevels[device]))
+                .append(",\"signalStrength\":").append(signalStrength)
+                .append(",\"sequence\":").append(sequence)
+                .append(",\"data\":{\"value\":").append(round2(value))
+                .append(",\"unit\":\"").append(profile.unit)
+                .append("\",\"isAnomaly\":").append(anomaly[0])
+                .append(",\"anomalyCount\":").append(anomalyCounts[device])
+                .append(",\"").append(profile.primaryField).append("\":").append(value)
+                .append(",\"").append(profile.secondaryField).append("\":")
+                .append(random.nextDouble(profile.secondaryMin, profile.secondaryMax))
+                .append("}}");
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    public int lastSequence(int device) {
+        return sequences[device];
+    }
+
+    public void markSent(int device, int sequence, long nanos) {
+        int slot = device * SEND_HISTORY + Math.floorMod(sequence, SEND_HISTORY);
+        // Sequences start at 1, so 0 marks the slot as being rewritten
+        sentSequences.set(slot, 0);
+        sentNanos.set(slot, nanos);
+        sentSequences.set(slot, sequence);
+    }
+
+    // Returns -1 when the publish time has already been overwritten or was never recorded
+    public long sentNanos(int device, int sequence) {
+        int slot = device * SEND_HISTORY + Math.floorMod(sequence, SEND_HISTORY);
+        if (sentSequences.get(slot) != sequence) return -1;
+        long nanos = sentNanos.get(slot);
+        return sentSequences.get(slot) == sequence ? nanos : -1;
+    }
+
+    // Maps a device id back to its index, or -1 for devices this run did not create
+    public int indexOf(String deviceId) {
+        if (deviceId == null || !deviceId.startsWith(deviceIdPrefix)) return -1;
+        try {
+            int index = Integer.parseInt(deviceId, deviceIdPrefix.length(), deviceId.length(), 10);
+            return index >= 0 && index < deviceIds.length ? index : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static double uniform(ThreadLocalRandom random, double a, double b) {
+        return a + (b - a) * random.nextDouble();
+    }
+
+    private static double round2(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+}
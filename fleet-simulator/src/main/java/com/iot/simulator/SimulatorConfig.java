@@ -0,0 +1,88 @@
+package com.iot.simulator;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Command line options, given as --name=value. Defaults match the Python mock devices
+ * where there is an equivalent (anomaly probability, factory layout).
+ */
+public record SimulatorConfig(
+        int devices,
+        double messagesPerDevicePerSecond,
+        int connections,
+        int maxInflight,
+        int qos,
+        double anomalyProbability,
+        int factories,
+        int durationSeconds,
+        int warmupSeconds,
+        int reportIntervalSeconds,
+        String mqttBroker,
+        String kafkaBootstrapServers,
+        boolean embeddedKafka,
+        int embeddedKafkaPort,
+        String deviceIdPrefix) {
+
+    public static SimulatorConfig parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unrecognized argument: " + arg);
+            }
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                options.put(arg.substring(2), "true");
+            } else {
+                options.put(arg.substring(2, separator), arg.substring(separator + 1));
+            }
+        }
+
+        SimulatorConfig config = new SimulatorConfig(
+                Integer.parseInt(options.getOrDefault("devices", "100000")),
+                Double.parseDouble(options.getOrDefault("rate", "0.2")),
+                Integer.parseInt(options.getOrDefault("connections", "8")),
+                Integer.parseInt(options.getOrDefault("max-inflight", "1000")),
+                Integer.parseInt(options.getOrDefault("qos", "1")),
+                Double.parseDouble(options.getOrDefault("anomaly-probability", "0.05")),
+                Integer.parseInt(options.getOrDefault("factories", "3")),
+                Integer.parseInt(options.getOrDefault("duration", "120")),
+                Integer.parseInt(options.getOrDefault("warmup", "15")),
+                Integer.parseInt(options.getOrDefault("report-interval", "5")),
+                options.getOrDefault("mqtt", "tcp://localhost:1883"),
+                options.getOrDefault("kafka", "localhost:9092"),
+                Boolean.parseBoolean(options.getOrDefault("embedded-kafka", "false")),
+                Integer.parseInt(options.getOrDefault("embedded-kafka-port", "9092")),
+                options.getOrDefault("device-prefix", "sim-"));
+        config.validate();
+        return config;
+    }
+
+    public double targetMessagesPerSecond() {
+        return devices * messagesPerDevicePerSecond;
+    }
+
+    private void validate() {
+        if (devices <= 0) throw new IllegalArgumentException("--devices must be positive");
+        if (messagesPerDevicePerSecond <= 0) throw new IllegalArgumentException("--rate must be positive");
+        if (connections <= 0 || connections > devices) {
+            throw new IllegalArgumentException("--connections must be between 1 and --devices");
+        }
+        if (qos < 0 || qos > 2) throw new IllegalArgumentException("--qos must be 0, 1 or 2");
+        if (anomalyProbability < 0 || anomalyProbability > 1) {
+            throw new IllegalArgumentException("--anomaly-probability must be between 0 and 1");
+        }
+        if (warmupSeconds >= durationSeconds) {
+            throw new IllegalArgumentException("--warmup must be shorter than --duration");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d devices x %.3f msg/s (%.0f msg/s) over %d MQTT connections to %s, qos %d, "
+                        + "anomaly probability %.3f, %ds run with %ds warm-up, Kafka %s",
+                devices, messagesPerDevicePerSecond, targetMessagesPerSecond(), connections, mqttBroker, qos,
+                anomalyProbability, durationSeconds, warmupSeconds,
+                embeddedKafka ? "embedded on port " + embeddedKafkaPort : kafkaBootstrapServers);
+    }
+}
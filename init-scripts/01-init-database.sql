@@ -49,14 +49,22 @@ INSERT INTO device_configurations (device_id, config_key, config_value) VALUES
 ('device-001', 'sampling_rate', '5'),
 ('device-001', 'threshold_high', '80'),
 ('device-001', 'threshold_low', '-10'),
+('device-001', 'threshold_metric', 'temperature'),
+('device-001', 'deadband_mode', 'swinging_door'),
+('device-001', 'deadband_value', '0.2'),
 ('device-002', 'sampling_rate', '10'),
 ('device-002', 'threshold_high', '10'),
 ('device-002', 'threshold_low', '0.1'),
+('device-002', 'threshold_metric', 'pressure'),
+('device-002', 'deadband_mode', 'absolute'),
+('device-002', 'deadband_value', '0.05'),
 ('device-003', 'sampling_rate', '1'),
 ('device-003', 'threshold_high', '5'),
+('device-003', 'threshold_metric', 'vibration'),
 ('device-004', 'response_time', '2'),
 ('device-004', 'max_pressure', '15'),
 ('device-005', 'sampling_rate', '5'),
 ('device-005', 'threshold_high', '80'),
-('device-005', 'threshold_low', '-10')
+('device-005', 'threshold_low', '-10'),
+('device-005', 'threshold_metric', 'temperature')
 ON CONFLICT (device_id, config_key) DO NOTHING;
@@ -0,0 +1,35 @@
+#!/bin/bash
+
+# JMH Benchmark Runner
+#
+# Usage: ./scripts/run-benchmarks.sh <label> [benchmark regex] [extra JMH options]
+#   ./scripts/run-benchmarks.sh before
+#   ./scripts/run-benchmarks.sh after ProcessingPathBenchmark
+#
+# Results go to benchmarks/results/<label>.json (and .txt), so a run on the base
+# branch and one on the change can be compared side by side.
+
+LABEL=${1:?"Usage: $0 <label> [benchmark regex] [extra JMH options]"}
+PATTERN=${2:-.}
+shift $(( $# > 1 ? 2 : 1 ))
+
+RESULTS_DIR=benchmarks/results
+mkdir -p "$RESULTS_DIR"
+
+echo "📦 Building the benchmark jar..."
+mvn -q -pl benchmarks -am package -DskipTests
+if [ $? -ne 0 ]; then
+    echo "❌ Build failed. Please check the errors above."
+    exit 1
+fi
+
+echo "⏱️ Running benchmarks matching '$PATTERN' with the GC profiler..."
+java -jar benchmarks/target/benchmarks.jar "$PATTERN" \
+    -prof gc \
+    -rf json -rff "$RESULTS_DIR/$LABEL.json" \
+    "$@" | tee "$RESULTS_DIR/$LABEL.txt"
+
+echo ""
+echo "✅ Results written to $RESULTS_DIR/$LABEL.json"
+echo "💡 Compare ns/op and gc.alloc.rate.norm (bytes/op) against another label, e.g.:"
+echo "   grep -E 'avgt|alloc.rate.norm' $RESULTS_DIR/before.txt $RESULTS_DIR/$LABEL.txt"